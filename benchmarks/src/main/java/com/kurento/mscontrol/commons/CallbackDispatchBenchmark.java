@@ -0,0 +1,123 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.server.CallbackDispatchers;
+
+/**
+ * Throughput of Continuation callbacks under each callback dispatcher policy.
+ * <p>
+ * Every invocation dispatches a batch of callbacks, spread over several
+ * connections, and waits until all of them have run.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackDispatchBenchmark {
+
+	private static final int CONNECTIONS = 16;
+	private static final int CALLBACKS = 1024;
+
+	@Param({ "direct", "pool", "ordered", "threadPerCallback" })
+	public String mode;
+
+	private ExecutorService pool;
+	private StubNetworkConnection[] connections;
+
+	private volatile CountDownLatch latch;
+
+	private final NetworkConnection.Continuation cont = new NetworkConnection.Continuation() {
+
+		@Override
+		public void onSucess(SessionSpec spec) {
+			latch.countDown();
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			throw new IllegalStateException(cause);
+		}
+	};
+
+	@Setup
+	public void setup() {
+		final ThreadFactory daemons = new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		pool = Executors.newFixedThreadPool(4, daemons);
+
+		connections = new StubNetworkConnection[CONNECTIONS];
+		for (int i = 0; i < CONNECTIONS; i++) {
+			connections[i] = new StubNetworkConnection();
+			if ("pool".equals(mode)) {
+				connections[i].setCallbackDispatcher(CallbackDispatchers
+						.executor(pool));
+			} else if ("ordered".equals(mode)) {
+				connections[i].setCallbackDispatcher(CallbackDispatchers
+						.ordered(pool));
+			} else if ("threadPerCallback".equals(mode)) {
+				connections[i].setCallbackDispatcher(CallbackDispatchers
+						.threadPerCallback(daemons));
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CALLBACKS)
+	public void dispatch() throws InterruptedException {
+		latch = new CountDownLatch(CALLBACKS);
+		for (int i = 0; i < CALLBACKS; i++) {
+			connections[i % CONNECTIONS].generateSessionSpecOffer(cont);
+		}
+		latch.await();
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Cost of {@link MediaSrc#connect(MediaSink)} and
+ * {@link MediaSrc#disconnect(MediaSink)} on the in-memory engine, including
+ * the bookkeeping of the owning Joinables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+public class ConnectChurnBenchmark {
+
+	private InMemoryJoinable first;
+	private InMemoryJoinable second;
+	private InMemoryJoinable target;
+
+	private InMemoryMediaSrc firstSrc;
+	private InMemoryMediaSrc secondSrc;
+	private InMemoryMediaSink sink;
+
+	@Setup
+	public void setup() {
+		first = new InMemoryJoinable(MediaType.AUDIO);
+		second = new InMemoryJoinable(MediaType.AUDIO);
+		target = new InMemoryJoinable(MediaType.AUDIO);
+		firstSrc = first.getMediaSrc(MediaType.AUDIO);
+		secondSrc = second.getMediaSrc(MediaType.AUDIO);
+		sink = target.getMediaSink(MediaType.AUDIO);
+	}
+
+	@TearDown
+	public void tearDown() {
+		first.release();
+		second.release();
+		target.release();
+	}
+
+	@Benchmark
+	public void connectDisconnect() throws MediaException {
+		firstSrc.connect(sink);
+		firstSrc.disconnect(sink);
+	}
+
+	/**
+	 * Moves the sink from one source to the other, which disconnects it from
+	 * the previous source implicitly
+	 */
+	@Benchmark
+	public void switchSource() throws MediaException {
+		firstSrc.connect(sink);
+		secondSrc.connect(sink);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Compares {@link Joinable#join(Joinable)} against the nested loop over all
+ * MediaSrc/MediaSink pairs that it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JoinBenchmark {
+
+	@Param({ "1", "4", "16" })
+	public int streamsPerType;
+
+	private StubJoinable a;
+	private StubJoinable b;
+
+	@Setup
+	public void setup() {
+		MediaType[] types = MediaType.values();
+		a = new StubJoinable(types, streamsPerType);
+		b = new StubJoinable(types, streamsPerType);
+	}
+
+	@Benchmark
+	public void indexedJoin() throws MediaException {
+		a.join(b);
+	}
+
+	@Benchmark
+	public boolean nestedLoopJoin() throws MediaException {
+		boolean joined = nestedLoopJoinSend(a, b);
+		joined |= nestedLoopJoinSend(b, a);
+		return joined;
+	}
+
+	private static boolean nestedLoopJoinSend(Joinable from, Joinable to)
+			throws MediaException {
+		boolean joined = false;
+		Collection<MediaSrc> srcs = from.getMediaSrcs();
+		Collection<MediaSink> sinks = to.getMediaSinks();
+
+		for (MediaSrc src : srcs) {
+			for (MediaSink sink : sinks) {
+				if (src.getMediaType().equals(sink.getMediaType())) {
+					src.connect(sink);
+					joined = true;
+				}
+			}
+		}
+
+		return joined;
+	}
+}
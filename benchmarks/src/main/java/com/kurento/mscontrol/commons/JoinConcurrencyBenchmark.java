@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Multi-threaded join/unjoin stress test.
+ * <p>
+ * Compare the throughput of each benchmark with different thread counts (for
+ * example <code>-t 1</code>, <code>-t 4</code>, <code>-t 16</code>). Joins of
+ * disjoint Joinables should scale with the number of cores, while joins to a
+ * shared Joinable only contend on that Joinable.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class JoinConcurrencyBenchmark {
+
+	private static final MediaType[] TYPES = MediaType.values();
+
+	@State(Scope.Benchmark)
+	public static class Hub {
+
+		StubJoinable hub;
+
+		@Setup
+		public void setup() {
+			hub = new StubJoinable(TYPES, 1);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Peers {
+
+		StubJoinable a;
+		StubJoinable b;
+
+		@Setup
+		public void setup() {
+			a = new StubJoinable(TYPES, 1);
+			b = new StubJoinable(TYPES, 1);
+		}
+	}
+
+	@Benchmark
+	public void disjointJoinUnjoin(Peers peers) throws MediaException {
+		peers.a.join(peers.b);
+		peers.a.unjoin(peers.b);
+	}
+
+	@Benchmark
+	public void sharedJoinUnjoin(Hub hub, Peers peers) throws MediaException {
+		hub.hub.join(peers.a);
+		hub.hub.unjoin(peers.a);
+	}
+}
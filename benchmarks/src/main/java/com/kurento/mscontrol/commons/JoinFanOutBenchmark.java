@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Cost of joining a Joinable to <code>fanOut</code> peers and unjoining it
+ * again, for several numbers of streams.
+ * <p>
+ * Every invocation leaves the Joinables as it found them, so the same graph
+ * is measured on every iteration.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+public class JoinFanOutBenchmark {
+
+	@Param({ "1", "4", "16" })
+	public int streamsPerType;
+
+	@Param({ "1", "8", "64" })
+	public int fanOut;
+
+	private StubJoinable hub;
+	private List<StubJoinable> peers;
+
+	@Setup
+	public void setup() {
+		MediaType[] types = MediaType.values();
+		hub = new StubJoinable(types, streamsPerType);
+		peers = new ArrayList<StubJoinable>(fanOut);
+		for (int i = 0; i < fanOut; i++) {
+			peers.add(new StubJoinable(types, streamsPerType));
+		}
+	}
+
+	@Benchmark
+	public void joinUnjoinEach() throws MediaException {
+		for (StubJoinable peer : peers) {
+			hub.join(peer);
+		}
+		for (StubJoinable peer : peers) {
+			hub.unjoin(peer);
+		}
+	}
+
+	@Benchmark
+	public void joinAllUnjoinAll() throws MediaException {
+		hub.joinAll(peers);
+		hub.unjoinAll(peers);
+	}
+
+	@Benchmark
+	public void joinAllUnjoinEverything() throws MediaException {
+		hub.joinAll(peers);
+		hub.unjoinAll();
+	}
+}
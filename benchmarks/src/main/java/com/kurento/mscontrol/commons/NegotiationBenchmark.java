@@ -0,0 +1,100 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.SessionSpec;
+
+/**
+ * Offer/answer round trip between two in-memory NetworkConnections.
+ * <p>
+ * Every invocation generates an offer, answers it, processes the answer and
+ * releases both connections, which makes them ready for the next round.
+ * Callbacks run on the calling thread.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms512m", "-Xmx512m" })
+public class NegotiationBenchmark {
+
+	@Param({ "AUDIO", "AUDIO,VIDEO", "AUDIO,VIDEO,DATA" })
+	public String types;
+
+	private InMemoryNetworkConnection offerer;
+	private InMemoryNetworkConnection answerer;
+
+	private SessionSpec result;
+
+	private final NetworkConnection.Continuation cont = new NetworkConnection.Continuation() {
+
+		@Override
+		public void onSucess(SessionSpec spec) {
+			result = spec;
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			throw new IllegalStateException(cause);
+		}
+	};
+
+	@Setup
+	public void setup() {
+		String[] names = types.split(",");
+		MediaType[] mediaTypes = new MediaType[names.length];
+		for (int i = 0; i < names.length; i++) {
+			mediaTypes[i] = MediaType.valueOf(names[i]);
+		}
+		offerer = new InMemoryNetworkConnection(mediaTypes);
+		answerer = new InMemoryNetworkConnection(mediaTypes);
+	}
+
+	@Benchmark
+	public SessionSpec roundTrip() {
+		offerer.generateSessionSpecOffer(cont);
+		answerer.processSessionSpecOffer(result, cont);
+		offerer.processSessionSpecAnswer(result, cont);
+		SessionSpec local = result;
+		offerer.release();
+		answerer.release();
+		return local;
+	}
+
+	@Benchmark
+	public SessionSpec offer() {
+		offerer.generateSessionSpecOffer(cont);
+		offerer.release();
+		return result;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Joinable whose streams do nothing but count connections. It isolates the
+ * cost of the join logic from any media backend.
+ */
+public class StubJoinable extends Joinable {
+
+	private final List<MediaSrc> srcs = new ArrayList<MediaSrc>();
+	private final List<MediaSink> sinks = new ArrayList<MediaSink>();
+
+	/**
+	 * Creates a Joinable with one MediaSrc and one MediaSink per stream of
+	 * each given MediaType
+	 * 
+	 * @param types
+	 *            MediaTypes of the streams
+	 * @param streamsPerType
+	 *            number of sources and sinks of each MediaType
+	 */
+	public StubJoinable(MediaType[] types, int streamsPerType) {
+		for (MediaType type : types) {
+			for (int i = 0; i < streamsPerType; i++) {
+				srcs.add(new StubMediaSrc(this, type));
+				sinks.add(new StubMediaSink(this, type));
+			}
+		}
+	}
+
+	@Override
+	public Collection<MediaSrc> getMediaSrcs() {
+		return srcs;
+	}
+
+	@Override
+	public Collection<MediaSink> getMediaSinks() {
+		return sinks;
+	}
+}
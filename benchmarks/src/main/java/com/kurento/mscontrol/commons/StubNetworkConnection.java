@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import com.kurento.mediaspec.SessionSpec;
+
+/**
+ * NetworkConnection without streams whose operations complete at once with
+ * the same SessionSpec. It isolates the cost of dispatching Continuations.
+ */
+public class StubNetworkConnection extends NetworkConnection {
+
+	private final SessionSpec spec = new SessionSpec();
+
+	@Override
+	public Collection<MediaSrc> getMediaSrcs() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Collection<MediaSink> getMediaSinks() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void confirm() {
+	}
+
+	@Override
+	public void generateSessionSpecOffer(Continuation cont) {
+		dispatchSuccess(cont, spec);
+	}
+
+	@Override
+	public void processSessionSpecOffer(SessionSpec offer, Continuation cont) {
+		dispatchSuccess(cont, spec);
+	}
+
+	@Override
+	public void processSessionSpecAnswer(SessionSpec answer, Continuation cont) {
+		dispatchSuccess(cont, spec);
+	}
+
+	@Override
+	public SessionSpec getSessionSpec() {
+		return spec;
+	}
+
+	@Override
+	public SessionSpec getRemoteSessionSpec() {
+		return spec;
+	}
+}
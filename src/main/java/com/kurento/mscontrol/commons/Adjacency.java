@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Connections of the streams of one {@link Joinable}.
+ * <p>
+ * Every link between a MediaSrc and a MediaSink is recorded in the Adjacency
+ * of both Joinables, so that the sinks fed by a source and the links shared
+ * with a given peer can be found without scanning any stream collection.
+ * </p>
+ * <p>
+ * This class is not thread-safe, it is guarded by the lock of its Joinable.
+ * </p>
+ */
+final class Adjacency {
+
+	/**
+	 * Sinks fed by each of the owner's MediaSrcs
+	 */
+	private final Map<MediaSrc, Set<MediaSink>> sinksBySrc = new HashMap<MediaSrc, Set<MediaSink>>();
+
+	/**
+	 * MediaSrc feeding each of the owner's MediaSinks
+	 */
+	private final Map<MediaSink, MediaSrc> srcBySink = new HashMap<MediaSink, MediaSrc>();
+
+	/**
+	 * Owner's MediaSinks grouped by the Joinable that feeds them
+	 */
+	private final Map<Joinable, Map<MediaSink, MediaSrc>> inbound = new HashMap<Joinable, Map<MediaSink, MediaSrc>>();
+
+	/**
+	 * Number of links from the owner's MediaSrcs to each Joinable
+	 */
+	private final Map<Joinable, int[]> outbound = new HashMap<Joinable, int[]>();
+
+	MediaSrc getSrc(MediaSink sink) {
+		return srcBySink.get(sink);
+	}
+
+	/**
+	 * Returns the sinks fed by src or null if it feeds none
+	 */
+	Set<MediaSink> getSinks(MediaSrc src) {
+		return sinksBySrc.get(src);
+	}
+
+	int getSinkCount(MediaSrc src) {
+		Set<MediaSink> sinks = sinksBySrc.get(src);
+		return sinks == null ? 0 : sinks.size();
+	}
+
+	/**
+	 * Returns the owner's sinks fed by <code>from</code>, with their source,
+	 * or null if there is none
+	 */
+	Map<MediaSink, MediaSrc> getInbound(Joinable from) {
+		return inbound.get(from);
+	}
+
+	Set<Joinable> getPeers() {
+		Set<Joinable> peers = new HashSet<Joinable>(inbound.keySet());
+		peers.addAll(outbound.keySet());
+		return peers;
+	}
+
+	void addInbound(Joinable from, MediaSrc src, MediaSink sink) {
+		srcBySink.put(sink, src);
+		Map<MediaSink, MediaSrc> sinks = inbound.get(from);
+		if (sinks == null) {
+			sinks = new LinkedHashMap<MediaSink, MediaSrc>();
+			inbound.put(from, sinks);
+		}
+		sinks.put(sink, src);
+	}
+
+	void removeInbound(Joinable from, MediaSink sink) {
+		srcBySink.remove(sink);
+		Map<MediaSink, MediaSrc> sinks = inbound.get(from);
+		if (sinks != null) {
+			sinks.remove(sink);
+			if (sinks.isEmpty()) {
+				inbound.remove(from);
+			}
+		}
+	}
+
+	void addOutbound(Joinable to, MediaSrc src, MediaSink sink) {
+		Set<MediaSink> sinks = sinksBySrc.get(src);
+		if (sinks == null) {
+			sinks = new LinkedHashSet<MediaSink>();
+			sinksBySrc.put(src, sinks);
+		}
+		if (!sinks.add(sink)) {
+			return;
+		}
+
+		int[] count = outbound.get(to);
+		if (count == null) {
+			count = new int[1];
+			outbound.put(to, count);
+		}
+		count[0]++;
+	}
+
+	void removeOutbound(Joinable to, MediaSrc src, MediaSink sink) {
+		Set<MediaSink> sinks = sinksBySrc.get(src);
+		if (sinks == null || !sinks.remove(sink)) {
+			return;
+		}
+		if (sinks.isEmpty()) {
+			sinksBySrc.remove(src);
+		}
+
+		int[] count = outbound.get(to);
+		if (count != null && --count[0] == 0) {
+			outbound.remove(to);
+		}
+	}
+}
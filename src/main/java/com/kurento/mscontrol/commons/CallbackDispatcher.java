@@ -0,0 +1,47 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+/**
+ * Runs the {@link NetworkConnection.Continuation}s of a NetworkConnection,
+ * see {@link NetworkConnection#setCallbackDispatcher(CallbackDispatcher)}.
+ * <p>
+ * Dispatchers backed by threads or executors are available in
+ * <code>com.kurento.mscontrol.commons.server.CallbackDispatchers</code>.
+ * </p>
+ */
+public interface CallbackDispatcher {
+
+	/**
+	 * Runs callbacks on the thread that completes the operation. It adds no
+	 * overhead, but a slow callback delays the implementation thread.
+	 */
+	public static final CallbackDispatcher DIRECT = new CallbackDispatcher() {
+
+		@Override
+		public void dispatch(Runnable callback) {
+			callback.run();
+		}
+	};
+
+	/**
+	 * Runs a callback, now or later, on any thread
+	 * 
+	 * @param callback
+	 *            The callback
+	 */
+	public void dispatch(Runnable callback);
+}
@@ -0,0 +1,122 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Links made by {@link Joinable#join(Joinable)} between two
+ * {@link StreamLayout}s, as positions in each layout.
+ * <p>
+ * The plan issues the same MediaSrc.connect calls, in the same order, as
+ * matching the streams of both Joinables by MediaType, so it can be compiled
+ * once and replayed for every pair of Joinables with the same layouts.
+ * </p>
+ */
+final class JoinPlan {
+
+	/**
+	 * Pairs of (local src, remote sink) positions
+	 */
+	private final int[] send;
+
+	/**
+	 * Pairs of (remote src, local sink) positions
+	 */
+	private final int[] recv;
+
+	private JoinPlan(int[] send, int[] recv) {
+		this.send = send;
+		this.recv = recv;
+	}
+
+	static JoinPlan compile(StreamLayout local, StreamLayout remote) {
+		return new JoinPlan(compileSend(local, remote), compileSend(remote,
+				local));
+	}
+
+	/**
+	 * Follows the order of {@link StreamIndex} buckets: MediaTypes in order of
+	 * first appearance in the sources and then in the sinks of
+	 * <code>from</code>, and streams in layout order within a MediaType.
+	 */
+	private static int[] compileSend(StreamLayout from, StreamLayout to) {
+		int links = 0;
+		for (MediaType srcType : from.srcTypes) {
+			for (MediaType sinkType : to.sinkTypes) {
+				if (srcType.equals(sinkType)) {
+					links++;
+				}
+			}
+		}
+
+		int[] plan = new int[2 * links];
+		int n = 0;
+		for (int i = 0; i < from.srcTypes.length; i++) {
+			MediaType type = from.srcTypes[i];
+			if (indexOf(from.srcTypes, type) < i) {
+				// MediaType already planned
+				continue;
+			}
+
+			for (int src = i; src < from.srcTypes.length; src++) {
+				if (!type.equals(from.srcTypes[src])) {
+					continue;
+				}
+				for (int sink = 0; sink < to.sinkTypes.length; sink++) {
+					if (type.equals(to.sinkTypes[sink])) {
+						plan[n++] = src;
+						plan[n++] = sink;
+					}
+				}
+			}
+		}
+
+		return plan;
+	}
+
+	private static int indexOf(MediaType[] types, MediaType type) {
+		for (int i = 0; i < types.length; i++) {
+			if (type.equals(types[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	boolean isEmpty() {
+		return send.length == 0 && recv.length == 0;
+	}
+
+	/**
+	 * Issues the planned links between the streams of both indexes, which
+	 * must have the layouts the plan was compiled for
+	 */
+	void execute(StreamIndex local, StreamIndex remote) throws MediaException {
+		for (int i = 0; i < send.length; i += 2) {
+			link(local.getSrc(send[i]), remote.getSink(send[i + 1]));
+		}
+		for (int i = 0; i < recv.length; i += 2) {
+			link(remote.getSrc(recv[i]), local.getSink(recv[i + 1]));
+		}
+	}
+
+	private static void link(MediaSrc src, MediaSink sink)
+			throws MediaException {
+		src.connect(sink);
+		Joinable.recordConnect(src, sink);
+	}
+}
@@ -15,9 +15,19 @@
 
 package com.kurento.mscontrol.commons;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.kurento.mediaspec.Direction;
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.LatencyRecorder.Operation;
+import com.kurento.mscontrol.commons.LatencyRecorder.Outcome;
 
 /**
  * A Joinable is suitable for media composition.<br>
@@ -27,17 +37,419 @@ import com.kurento.mediaspec.Direction;
  * {@link Direction}).<br>
  * The join direction can be changed by calling join again, with a different
  * <code>Direction</code>.
+ * 
+ * <h3><b>Streams</b></h3>
+ * <p>
+ * Join operations index the streams returned by {@link #getMediaSrcs()} and
+ * {@link #getMediaSinks()} by MediaType, and reuse the index while both
+ * methods return the same collections with the same sizes. Implementations
+ * returning a new collection on every call are indexed again on every join.
+ * Implementations that replace a stream in place, keeping the size of the
+ * collection, must call {@link #streamsChanged()}.
+ * </p>
+ * 
+ * <h3><b>Thread safety</b></h3>
+ * <p>
+ * Join and unjoin operations can be called concurrently from any thread. The
+ * links between streams are recorded in every Joinable under its own lock,
+ * and an operation only takes the locks of the Joinables whose links it
+ * changes, always in the same global order. Operations on disjoint Joinables
+ * never contend and no lock is held while calling {@link MediaSrc} methods.
+ * </p>
+ * <p>
+ * As a consequence, concurrent operations linking the same MediaSink are
+ * applied in the order their MediaSrc calls complete and the last one wins.
+ * MediaSrc and MediaSink implementations must be thread-safe.
+ * </p>
  */
 public abstract class Joinable {
 
+	private final long graphId = nextGraphId();
+
+	private final Object graphLock = new Object();
+
+	private final Adjacency adjacency = new Adjacency();
+
+	private volatile StreamIndex streamIndex;
+
+	private volatile LatencyRecorder latencyRecorder;
+
+	/**
+	 * Start time of operations that are not being timed
+	 */
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private static long lastGraphId;
+
+	private static volatile LinkListener[] linkListeners = {};
+
 	Joinable() {
 
 	}
 
+	private static synchronized long nextGraphId() {
+		return ++lastGraphId;
+	}
+
 	public abstract Collection<MediaSrc> getMediaSrcs();
 
 	public abstract Collection<MediaSink> getMediaSinks();
 
+	/**
+	 * Notifies that the collections returned by {@link #getMediaSrcs()} or
+	 * {@link #getMediaSinks()} have changed.
+	 * <p>
+	 * Streams are indexed by {@link MediaType} the first time they are needed
+	 * by a join operation. Every join checks that both methods still return
+	 * the collections the index was built from, with the same sizes, and
+	 * rebuilds it otherwise, so streams added or removed are always seen.
+	 * Implementations must call this method when a stream is replaced in
+	 * place or changes its MediaType, which that check can not detect.
+	 * </p>
+	 */
+	protected final void streamsChanged() {
+		streamIndex = null;
+	}
+
+	/**
+	 * Sets the recorder of the latency of the operations of this object.
+	 * <p>
+	 * Synchronous joins and unjoins are timed by this class. NetworkConnection
+	 * implementations time their negotiation operations and
+	 * {@link NetworkConnection#confirm()} with {@link #startTiming()} and
+	 * {@link #recordLatency(Operation, Outcome, long)}.
+	 * </p>
+	 * 
+	 * @param recorder
+	 *            The recorder or null to stop timing operations
+	 */
+	public void setLatencyRecorder(LatencyRecorder recorder) {
+		latencyRecorder = recorder;
+	}
+
+	/**
+	 * @return The recorder of the latency of the operations of this object or
+	 *         null if they are not timed
+	 */
+	public LatencyRecorder getLatencyRecorder() {
+		return latencyRecorder;
+	}
+
+	/**
+	 * Returns the start time of an operation, to be given to
+	 * {@link #recordLatency(Operation, Outcome, long)} when it completes
+	 * 
+	 * @return The current time, or a marker telling that the operation is not
+	 *         timed if there is no recorder
+	 */
+	protected final long startTiming() {
+		LatencyRecorder recorder = latencyRecorder;
+		return recorder == null ? NOT_TIMED : recorder.currentTime();
+	}
+
+	/**
+	 * Records the latency of a completed operation, if it was timed
+	 * 
+	 * @param operation
+	 *            The operation
+	 * @param outcome
+	 *            How it ended
+	 * @param start
+	 *            The value returned by {@link #startTiming()} when it began
+	 */
+	protected final void recordLatency(Operation operation, Outcome outcome,
+			long start) {
+		if (start == NOT_TIMED) {
+			return;
+		}
+		LatencyRecorder recorder = latencyRecorder;
+		if (recorder != null) {
+			recorder.record(operation, outcome, recorder.currentTime() - start);
+		}
+	}
+
+	StreamIndex getStreamIndex() {
+		Collection<MediaSrc> srcs = getMediaSrcs();
+		Collection<MediaSink> sinks = getMediaSinks();
+		StreamIndex index = streamIndex;
+		if (index == null || !index.isBuiltFrom(srcs, sinks)) {
+			// Concurrent callers may build equivalent indexes, any will do
+			index = new StreamIndex(srcs, sinks);
+			streamIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the MediaSinks currently fed by <code>src</code>, one of this
+	 * object's MediaSrcs.
+	 * 
+	 * @param src
+	 *            MediaSrc of this object
+	 * @return The sinks connected to <code>src</code>, empty if none
+	 */
+	public Collection<MediaSink> getConnectedSinks(MediaSrc src) {
+		synchronized (graphLock) {
+			Set<MediaSink> sinks = adjacency.getSinks(src);
+			if (sinks == null) {
+				return Collections.emptyList();
+			}
+			return new ArrayList<MediaSink>(sinks);
+		}
+	}
+
+	/**
+	 * Returns the MediaSrc currently feeding <code>sink</code>, one of this
+	 * object's MediaSinks.
+	 * 
+	 * @param sink
+	 *            MediaSink of this object
+	 * @return The src connected to <code>sink</code>, null if none
+	 */
+	public MediaSrc getConnectedSrc(MediaSink sink) {
+		synchronized (graphLock) {
+			return adjacency.getSrc(sink);
+		}
+	}
+
+	int getConnectedSinkCount(MediaSrc src) {
+		synchronized (graphLock) {
+			return adjacency.getSinkCount(src);
+		}
+	}
+
+	/**
+	 * Returns the Joinables this object sends media to or receives media from
+	 * 
+	 * @return The joined Joinables, empty if none
+	 */
+	public Collection<Joinable> getJoinees() {
+		synchronized (graphLock) {
+			return adjacency.getPeers();
+		}
+	}
+
+	/**
+	 * Records that <code>src</code> has been linked to <code>sink</code>.
+	 * <p>
+	 * Links created by join operations are recorded automatically. MediaSrc
+	 * implementations must call this method on their Joinable from
+	 * {@link MediaSrc#connect(MediaSink)} so that links created directly by
+	 * the application are also taken into account by
+	 * {@link #unjoin(Joinable)}, once <code>sink</code> reports
+	 * <code>src</code> as its connected MediaSrc. Recording a link twice has
+	 * no effect, and a link whose sink has already been connected to another
+	 * MediaSrc is ignored.
+	 * </p>
+	 * 
+	 * @param src
+	 *            MediaSrc of this object
+	 * @param sink
+	 *            The MediaSink now receiving <code>src</code> media
+	 */
+	protected final void connected(MediaSrc src, MediaSink sink) {
+		recordConnect(src, sink);
+	}
+
+	/**
+	 * Records that <code>src</code> has been unlinked from <code>sink</code>.
+	 * <p>
+	 * MediaSrc implementations must call this method on their Joinable from
+	 * {@link MediaSrc#disconnect(MediaSink)}. Unknown links are ignored.
+	 * </p>
+	 * 
+	 * @param src
+	 *            MediaSrc of this object
+	 * @param sink
+	 *            The MediaSink no longer receiving <code>src</code> media
+	 */
+	protected final void disconnected(MediaSrc src, MediaSink sink) {
+		recordDisconnect(src, sink);
+	}
+
+	/**
+	 * Adds a listener notified of every link recorded or removed by any
+	 * Joinable.
+	 * <p>
+	 * Listeners are called once the Joinables of the link are unlocked, on
+	 * the thread that changed it, so they may call back into any Joinable.
+	 * Notifications for a MediaSink linked concurrently from several threads
+	 * may arrive in any order; listeners that need its current link must read
+	 * it with {@link #getConnectedSrc(MediaSink)}.
+	 * </p>
+	 * 
+	 * @param listener
+	 *            The listener
+	 */
+	public static synchronized void addLinkListener(LinkListener listener) {
+		if (listener == null) {
+			throw new NullPointerException("Link listener is null");
+		}
+		LinkListener[] listeners = new LinkListener[linkListeners.length + 1];
+		System.arraycopy(linkListeners, 0, listeners, 0, linkListeners.length);
+		listeners[linkListeners.length] = listener;
+		linkListeners = listeners;
+	}
+
+	/**
+	 * Removes a listener added with {@link #addLinkListener(LinkListener)}.
+	 * It may still receive the notifications of links being recorded.
+	 * 
+	 * @param listener
+	 *            The listener
+	 * @return true if the listener was removed, false if it was not added
+	 */
+	public static synchronized boolean removeLinkListener(
+			LinkListener listener) {
+		for (int i = 0; i < linkListeners.length; i++) {
+			if (linkListeners[i] == listener) {
+				LinkListener[] listeners = new LinkListener[linkListeners.length - 1];
+				System.arraycopy(linkListeners, 0, listeners, 0, i);
+				System.arraycopy(linkListeners, i + 1, listeners, i,
+						listeners.length - i);
+				linkListeners = listeners;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void notifyLinked(MediaSrc src, MediaSink sink) {
+		for (LinkListener listener : linkListeners) {
+			listener.linked(src, sink);
+		}
+	}
+
+	private static void notifyUnlinked(MediaSrc src, MediaSink sink) {
+		for (LinkListener listener : linkListeners) {
+			listener.unlinked(src, sink);
+		}
+	}
+
+	/**
+	 * Records a link in the Adjacency of both Joinables, replacing the link
+	 * of the sink with its previous MediaSrc, if any.
+	 * <p>
+	 * Concurrent connections to the same sink are recorded in any order, so
+	 * the link is only recorded if the sink reports <code>src</code> as its
+	 * connected MediaSrc. The sink is asked before taking the locks, after
+	 * reading its recorded link, and the update starts again if that link
+	 * changed before the locks were held, so the answer is never older than
+	 * the link it replaces.
+	 * </p>
+	 * <p>
+	 * The locks of the Joinables involved are taken in graphId order, so
+	 * concurrent updates never deadlock and updates on disjoint Joinables do
+	 * not contend.
+	 * </p>
+	 */
+	static void recordConnect(MediaSrc src, MediaSink sink) {
+		Joinable from = src.getJoinable();
+		Joinable to = sink.getJoinable();
+		if (from == null || to == null) {
+			return;
+		}
+
+		for (;;) {
+			MediaSrc previous;
+			synchronized (to.graphLock) {
+				previous = to.adjacency.getSrc(sink);
+			}
+			if (previous == src) {
+				return;
+			}
+			MediaSrc actual = sink.getConnectedSrc();
+
+			Joinable previousFrom = previous != null ? previous.getJoinable()
+					: to;
+			Joinable first = from;
+			Joinable second = to;
+			Joinable third = previousFrom;
+			Joinable tmp;
+			if (first.graphId > second.graphId) {
+				tmp = first;
+				first = second;
+				second = tmp;
+			}
+			if (second.graphId > third.graphId) {
+				tmp = second;
+				second = third;
+				third = tmp;
+			}
+			if (first.graphId > second.graphId) {
+				tmp = first;
+				first = second;
+				second = tmp;
+			}
+
+			MediaSrc unlinked = null;
+			boolean linked = false;
+			synchronized (first.graphLock) {
+				synchronized (second.graphLock) {
+					synchronized (third.graphLock) {
+						if (to.adjacency.getSrc(sink) != previous) {
+							// Raced with another update of the sink
+							continue;
+						}
+
+						if (actual != src) {
+							// src was replaced or disconnected after it was
+							// connected; the update that replaced it records
+							// its own link
+							if (actual == null && previous != null) {
+								unlink(previousFrom, previous, to, sink);
+								unlinked = previous;
+							}
+						} else {
+							if (previous != null) {
+								to.adjacency.removeInbound(previousFrom, sink);
+								previousFrom.adjacency.removeOutbound(to,
+										previous, sink);
+							}
+							to.adjacency.addInbound(from, src, sink);
+							from.adjacency.addOutbound(to, src, sink);
+							linked = true;
+						}
+					}
+				}
+			}
+
+			if (unlinked != null) {
+				notifyUnlinked(unlinked, sink);
+			}
+			if (linked) {
+				notifyLinked(src, sink);
+			}
+			return;
+		}
+	}
+
+	static void recordDisconnect(MediaSrc src, MediaSink sink) {
+		Joinable from = src.getJoinable();
+		Joinable to = sink.getJoinable();
+		if (from == null || to == null) {
+			return;
+		}
+
+		Joinable first = from.graphId < to.graphId ? from : to;
+		Joinable second = first == from ? to : from;
+		synchronized (first.graphLock) {
+			synchronized (second.graphLock) {
+				if (to.adjacency.getSrc(sink) != src) {
+					return;
+				}
+				unlink(from, src, to, sink);
+			}
+		}
+		notifyUnlinked(src, sink);
+	}
+
+	private static void unlink(Joinable from, MediaSrc src, Joinable to,
+			MediaSink sink) {
+		to.adjacency.removeInbound(from, sink);
+		from.adjacency.removeOutbound(to, src, sink);
+	}
+
 	/**
 	 * Establish a media stream between this object and <code>other</code>.
 	 * <p>
@@ -73,33 +485,151 @@ public abstract class Joinable {
 	 *             if the object has been released
 	 */
 	public void join(Joinable other) throws MediaException {
-		boolean joined;
-
-		joined = joinSend(other);
+		long start = startTiming();
+		boolean done = false;
+		try {
+			joinUntimed(other);
+			done = true;
+		} finally {
+			recordLatency(Operation.JOIN, done ? Outcome.SUCCESS
+					: Outcome.EXCEPTION, start);
+		}
+	}
 
-		joined |= other.joinSend(this);
+	private void joinUntimed(Joinable other) throws MediaException {
+		StreamIndex local = getStreamIndex();
+		StreamIndex remote = other.getStreamIndex();
+		JoinPlan plan = local.getPlan(remote);
 
-		if (!joined) {
+		if (plan.isEmpty()) {
 			throw new MediaException(
 					"Unable to stablish at least one connection");
 		}
+
+		plan.execute(local, remote);
 	}
 
-	private boolean joinSend(Joinable other) throws MediaException {
-		boolean joined = false;
-		Collection<MediaSrc> srcs = getMediaSrcs();
-		Collection<MediaSink> sinks = other.getMediaSinks();
+	/**
+	 * Establish media streams between this object and every Joinable in
+	 * <code>others</code>.
+	 * <p>
+	 * 
+	 * The resulting relationship is the same as calling
+	 * {@link #join(Joinable)} once per element, in iteration order: this
+	 * object sends to all of them and only receives from the last one able to
+	 * send each MediaType. The connections are computed once, intermediate
+	 * connections that a sequence of joins would replace are not made, and the
+	 * sinks fed by each MediaSrc are handed to its Joinable in a single
+	 * {@link #connect(MediaSrc, List)} call.
+	 * </p>
+	 * 
+	 * @param others
+	 *            Joinable objects to connect
+	 * @throws MediaException
+	 *             if no connection can be established with any of the
+	 *             Joinables. In this case no connection is made at all.
+	 * @throws java.lang.IllegalStateException
+	 *             if the object has been released
+	 */
+	public void joinAll(Collection<? extends Joinable> others)
+			throws MediaException {
+		long start = startTiming();
+		boolean done = false;
+		try {
+			Map<MediaSrc, List<MediaSink>> plan = planJoin(others);
+
+			for (Map.Entry<MediaSrc, List<MediaSink>> entry : plan.entrySet()) {
+				MediaSrc src = entry.getKey();
+				ownerOf(src).connect(src, entry.getValue());
+				for (MediaSink sink : entry.getValue()) {
+					recordConnect(src, sink);
+				}
+			}
+			done = true;
+		} finally {
+			recordLatency(Operation.JOIN, done ? Outcome.SUCCESS
+					: Outcome.EXCEPTION, start);
+		}
+	}
+
+	private Map<MediaSrc, List<MediaSink>> planJoin(
+			Collection<? extends Joinable> others) throws MediaException {
+		StreamIndex local = getStreamIndex();
+		Map<MediaSrc, List<MediaSink>> plan = new LinkedHashMap<MediaSrc, List<MediaSink>>();
+
+		for (Joinable other : others) {
+			if (!canJoin(local, other.getStreamIndex())) {
+				throw new MediaException(
+						"Unable to stablish at least one connection with "
+								+ other);
+			}
+		}
+
+		for (int i = 0; i < local.size(); i++) {
+			StreamIndex.Bucket bucket = local.get(i);
+			if (bucket.srcs.length == 0) {
+				continue;
+			}
+
+			List<MediaSink> sinks = new ArrayList<MediaSink>();
+			for (Joinable other : others) {
+				StreamIndex.Bucket otherBucket = other.getStreamIndex().get(
+						bucket.type);
+				if (otherBucket != null) {
+					for (MediaSink sink : otherBucket.sinks) {
+						sinks.add(sink);
+					}
+				}
+			}
+
+			if (!sinks.isEmpty()) {
+				plan.put(bucket.srcs[bucket.srcs.length - 1], sinks);
+			}
+		}
+
+		for (int i = 0; i < local.size(); i++) {
+			StreamIndex.Bucket bucket = local.get(i);
+			if (bucket.sinks.length == 0) {
+				continue;
+			}
+
+			MediaSrc src = null;
+			for (Joinable other : others) {
+				StreamIndex.Bucket otherBucket = other.getStreamIndex().get(
+						bucket.type);
+				if (otherBucket != null && otherBucket.srcs.length > 0) {
+					src = otherBucket.srcs[otherBucket.srcs.length - 1];
+				}
+			}
 
-		for (MediaSrc src : srcs) {
-			for (MediaSink sink : sinks) {
-				if (src.getMediaType().equals(sink.getMediaType())) {
-					src.connect(sink);
-					joined = true;
+			if (src != null) {
+				List<MediaSink> sinks = plan.get(src);
+				if (sinks == null) {
+					sinks = new ArrayList<MediaSink>(bucket.sinks.length);
+					plan.put(src, sinks);
+				}
+				for (MediaSink sink : bucket.sinks) {
+					sinks.add(sink);
 				}
 			}
 		}
 
-		return joined;
+		return plan;
+	}
+
+	private static boolean canJoin(StreamIndex local, StreamIndex other) {
+		for (int i = 0; i < local.size(); i++) {
+			StreamIndex.Bucket bucket = local.get(i);
+			StreamIndex.Bucket otherBucket = other.get(bucket.type);
+			if (otherBucket == null) {
+				continue;
+			}
+			if ((bucket.srcs.length > 0 && otherBucket.sinks.length > 0)
+					|| (bucket.sinks.length > 0 && otherBucket.srcs.length > 0)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -116,20 +646,361 @@ public abstract class Joinable {
 	 *             if the object has been released
 	 */
 	public void unjoin(Joinable other) throws MediaException {
-		other.unjoinRecv(other);
-		unjoinRecv(this);
+		long start = startTiming();
+		boolean done = false;
+		try {
+			Map<MediaSrc, List<MediaSink>> plan = new LinkedHashMap<MediaSrc, List<MediaSink>>();
+
+			planUnjoin(plan, other);
+			executeUnjoin(plan);
+			done = true;
+		} finally {
+			recordLatency(Operation.UNJOIN, done ? Outcome.SUCCESS
+					: Outcome.EXCEPTION, start);
+		}
 	}
 
-	private void unjoinRecv(Joinable other) throws MediaException {
-		Collection<MediaSrc> srcs = other.getMediaSrcs();
-		Collection<MediaSink> sinks = getMediaSinks();
+	/**
+	 * Disconnect any media streams flowing between this object and every
+	 * Joinable in <code>others</code>.
+	 * <p>
+	 * 
+	 * Only the links actually shared with each Joinable are visited. The
+	 * disconnections are grouped by MediaSrc and handed to its Joinable in a
+	 * single {@link #disconnect(MediaSrc, List)} call.
+	 * </p>
+	 * 
+	 * @param others
+	 *            Joinable objects to disconnect
+	 * @throws MediaException
+	 * @throws java.lang.IllegalStateException
+	 *             if the object has been released
+	 */
+	public void unjoinAll(Collection<? extends Joinable> others)
+			throws MediaException {
+		long start = startTiming();
+		boolean done = false;
+		try {
+			Map<MediaSrc, List<MediaSink>> plan = new LinkedHashMap<MediaSrc, List<MediaSink>>();
 
-		for (MediaSink sink : sinks) {
-			MediaSrc src = sink.getConnectedSrc();
-			if (src != null && srcs.contains(src)) {
-				src.disconnect(sink);
+			for (Joinable other : new LinkedHashSet<Joinable>(others)) {
+				planUnjoin(plan, other);
+			}
+			executeUnjoin(plan);
+			done = true;
+		} finally {
+			recordLatency(Operation.UNJOIN, done ? Outcome.SUCCESS
+					: Outcome.EXCEPTION, start);
+		}
+	}
+
+	/**
+	 * Disconnect any media streams flowing between this object and any other
+	 * Joinable.
+	 * <p>
+	 * 
+	 * This is intended to be called before releasing the object. Its cost
+	 * depends only on the number of links of this object.
+	 * </p>
+	 * 
+	 * @throws MediaException
+	 * @throws java.lang.IllegalStateException
+	 *             if the object has been released
+	 */
+	public void unjoinAll() throws MediaException {
+		unjoinAll(getJoinees());
+	}
+
+	private void planUnjoin(Map<MediaSrc, List<MediaSink>> plan,
+			Joinable other) {
+		planUnjoinRecv(plan, this, other);
+		if (other != this) {
+			planUnjoinRecv(plan, other, this);
+		}
+	}
+
+	private static void planUnjoinRecv(Map<MediaSrc, List<MediaSink>> plan,
+			Joinable to, Joinable from) {
+		synchronized (to.graphLock) {
+			Map<MediaSink, MediaSrc> links = to.adjacency.getInbound(from);
+			if (links == null) {
+				return;
+			}
+
+			for (Map.Entry<MediaSink, MediaSrc> link : links.entrySet()) {
+				addToPlan(plan, link.getValue(), link.getKey());
+			}
+		}
+	}
+
+	private void executeUnjoin(Map<MediaSrc, List<MediaSink>> plan)
+			throws MediaException {
+		for (Map.Entry<MediaSrc, List<MediaSink>> entry : plan.entrySet()) {
+			MediaSrc src = entry.getKey();
+			List<MediaSink> sinks = new ArrayList<MediaSink>(entry.getValue()
+					.size());
+			for (MediaSink sink : entry.getValue()) {
+				// Links replaced behind our back are only forgotten
+				if (sink.getConnectedSrc() == src) {
+					sinks.add(sink);
+				} else {
+					recordDisconnect(src, sink);
+				}
+			}
+
+			if (!sinks.isEmpty()) {
+				ownerOf(src).disconnect(src, sinks);
+				for (MediaSink sink : sinks) {
+					recordDisconnect(src, sink);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Asynchronous version of {@link #join(Joinable)}.
+	 * <p>
+	 * 
+	 * The links are requested through
+	 * {@link #connectAsync(MediaSrc, List, JoinContinuation)} without waiting
+	 * for the previous ones to complete, and <code>cont</code> is notified
+	 * once, when all of them have completed. If any link fails the error of
+	 * the first failure is reported and the links that succeeded are kept.
+	 * </p>
+	 * 
+	 * @param other
+	 *            Joinable object to connect
+	 * @param cont
+	 *            Continuation object to notify when operation completes
+	 */
+	public void joinAsync(Joinable other, JoinContinuation cont) {
+		Map<MediaSrc, List<MediaSink>> plan;
+
+		try {
+			plan = planJoin(Collections.singletonList(other));
+		} catch (MediaException e) {
+			cont.onError(e);
+			return;
+		}
+
+		PendingLinks pending = new PendingLinks(plan.size(), cont);
+		for (Map.Entry<MediaSrc, List<MediaSink>> entry : plan.entrySet()) {
+			MediaSrc src = entry.getKey();
+			ownerOf(src).connectAsync(src, entry.getValue(),
+					pending.connected(src, entry.getValue()));
+		}
+	}
+
+	/**
+	 * Asynchronous version of {@link #unjoin(Joinable)}.
+	 * <p>
+	 * 
+	 * The unlinks are requested through
+	 * {@link #disconnectAsync(MediaSrc, List, JoinContinuation)} without
+	 * waiting for the previous ones to complete, and <code>cont</code> is
+	 * notified once, when all of them have completed.
+	 * </p>
+	 * 
+	 * @param other
+	 *            Joinable object to disconnect
+	 * @param cont
+	 *            Continuation object to notify when operation completes
+	 */
+	public void unjoinAsync(Joinable other, JoinContinuation cont) {
+		Map<MediaSrc, List<MediaSink>> plan = new LinkedHashMap<MediaSrc, List<MediaSink>>();
+
+		planUnjoin(plan, other);
+
+		PendingLinks pending = new PendingLinks(plan.size(), cont);
+		for (Map.Entry<MediaSrc, List<MediaSink>> entry : plan.entrySet()) {
+			MediaSrc src = entry.getKey();
+			List<MediaSink> sinks = new ArrayList<MediaSink>(entry.getValue()
+					.size());
+			for (MediaSink sink : entry.getValue()) {
+				if (sink.getConnectedSrc() == src) {
+					sinks.add(sink);
+				} else {
+					recordDisconnect(src, sink);
+				}
 			}
+
+			if (sinks.isEmpty()) {
+				pending.disconnected(src, sinks).onSucess();
+			} else {
+				ownerOf(src).disconnectAsync(src, sinks,
+						pending.disconnected(src, sinks));
+			}
+		}
+	}
+
+	private static void addToPlan(Map<MediaSrc, List<MediaSink>> plan,
+			MediaSrc src, MediaSink sink) {
+		List<MediaSink> sinks = plan.get(src);
+		if (sinks == null) {
+			sinks = new ArrayList<MediaSink>();
+			plan.put(src, sinks);
+		}
+		sinks.add(sink);
+	}
+
+	private Joinable ownerOf(MediaSrc src) {
+		Joinable owner = src.getJoinable();
+		return owner != null ? owner : this;
+	}
+
+	/**
+	 * Links <code>src</code>, one of this object's MediaSrcs, to every sink in
+	 * <code>sinks</code>.
+	 * <p>
+	 * Used by {@link #joinAll(Collection)}. The default implementation calls
+	 * {@link MediaSrc#connect(MediaSink)} once per sink. Implementations
+	 * backed by a remote media server should override it to apply all the
+	 * links in a single request.
+	 * </p>
+	 * 
+	 * @param src
+	 *            The MediaSrc that will send media
+	 * @param sinks
+	 *            The MediaSinks that will accept <code>src</code> media
+	 * @throws MediaException
+	 */
+	protected void connect(MediaSrc src, List<MediaSink> sinks)
+			throws MediaException {
+		for (MediaSink sink : sinks) {
+			src.connect(sink);
 		}
 	}
 
+	/**
+	 * Unlinks <code>src</code>, one of this object's MediaSrcs, from every
+	 * sink in <code>sinks</code>.
+	 * <p>
+	 * Used by {@link #unjoin(Joinable)} and {@link #unjoinAll(Collection)}.
+	 * The default implementation calls
+	 * {@link MediaSrc#disconnect(MediaSink)} once per sink. Implementations
+	 * backed by a remote media server should override it to apply all the
+	 * unlinks in a single request.
+	 * </p>
+	 * 
+	 * @param src
+	 *            The MediaSrc that will stop sending media
+	 * @param sinks
+	 *            The MediaSinks that will stop receiving <code>src</code>
+	 *            media
+	 * @throws MediaException
+	 */
+	protected void disconnect(MediaSrc src, List<MediaSink> sinks)
+			throws MediaException {
+		for (MediaSink sink : sinks) {
+			src.disconnect(sink);
+		}
+	}
+
+	/**
+	 * Asynchronously links <code>src</code>, one of this object's MediaSrcs,
+	 * to every sink in <code>sinks</code>.
+	 * <p>
+	 * Used by {@link #joinAsync(Joinable, JoinContinuation)}, which may have
+	 * several of these requests in progress at the same time. The default
+	 * implementation calls {@link #connect(MediaSrc, List)} on the calling
+	 * thread. Implementations backed by a remote media server should override
+	 * it to send the request and return without waiting for the response.
+	 * </p>
+	 * 
+	 * @param src
+	 *            The MediaSrc that will send media
+	 * @param sinks
+	 *            The MediaSinks that will accept <code>src</code> media
+	 * @param cont
+	 *            Continuation object to notify when operation completes
+	 */
+	protected void connectAsync(MediaSrc src, List<MediaSink> sinks,
+			JoinContinuation cont) {
+		try {
+			connect(src, sinks);
+		} catch (MediaException e) {
+			cont.onError(e);
+			return;
+		}
+		cont.onSucess();
+	}
+
+	/**
+	 * Asynchronously unlinks <code>src</code>, one of this object's
+	 * MediaSrcs, from every sink in <code>sinks</code>.
+	 * <p>
+	 * Used by {@link #unjoinAsync(Joinable, JoinContinuation)}. The default
+	 * implementation calls {@link #disconnect(MediaSrc, List)} on the calling
+	 * thread. Implementations backed by a remote media server should override
+	 * it to send the request and return without waiting for the response.
+	 * </p>
+	 * 
+	 * @param src
+	 *            The MediaSrc that will stop sending media
+	 * @param sinks
+	 *            The MediaSinks that will stop receiving <code>src</code>
+	 *            media
+	 * @param cont
+	 *            Continuation object to notify when operation completes
+	 */
+	protected void disconnectAsync(MediaSrc src, List<MediaSink> sinks,
+			JoinContinuation cont) {
+		try {
+			disconnect(src, sinks);
+		} catch (MediaException e) {
+			cont.onError(e);
+			return;
+		}
+		cont.onSucess();
+	}
+
+	/**
+	 * Used as a callback for asynchronous join and unjoin operations
+	 * 
+	 */
+	public interface JoinContinuation {
+
+		/**
+		 * This method is called when the operation success
+		 */
+		public void onSucess();
+
+		/**
+		 * This method gets called when the operation fails
+		 * 
+		 * @param cause
+		 *            The cause of the failure
+		 */
+		public void onError(Throwable cause);
+	}
+
+	/**
+	 * Notified of the links recorded by Joinables, see
+	 * {@link Joinable#addLinkListener(LinkListener)}
+	 */
+	public interface LinkListener {
+
+		/**
+		 * This method is called when <code>src</code> starts feeding
+		 * <code>sink</code>
+		 * 
+		 * @param src
+		 *            The MediaSrc
+		 * @param sink
+		 *            The MediaSink
+		 */
+		public void linked(MediaSrc src, MediaSink sink);
+
+		/**
+		 * This method is called when <code>src</code> stops feeding
+		 * <code>sink</code>
+		 * 
+		 * @param src
+		 *            The MediaSrc
+		 * @param sink
+		 *            The MediaSink
+		 */
+		public void unlinked(MediaSrc src, MediaSink sink);
+	}
+
 }
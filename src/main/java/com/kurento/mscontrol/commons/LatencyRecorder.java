@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+/**
+ * Receives the latency of the operations of {@link Joinable}s and
+ * {@link NetworkConnection}s.
+ * <p>
+ * A recorder is set with {@link Joinable#setLatencyRecorder(LatencyRecorder)}
+ * and may be shared by any number of objects. It is called on the thread
+ * that completes each operation, so it must be thread-safe and fast: it
+ * should not block nor allocate.
+ * </p>
+ * <p>
+ * The recorder also provides the clock, so that this interface does not
+ * depend on any platform timer. On the JVM,
+ * <code>com.kurento.mscontrol.commons.server.LatencyMetrics</code> is an
+ * implementation keeping one histogram per operation and outcome.
+ * </p>
+ */
+public interface LatencyRecorder {
+
+	/**
+	 * Timed operations
+	 */
+	public enum Operation {
+		GENERATE_OFFER, PROCESS_OFFER, PROCESS_ANSWER, CONFIRM, JOIN, UNJOIN
+	}
+
+	/**
+	 * How a timed operation ended
+	 */
+	public enum Outcome {
+		/**
+		 * The operation succeeded
+		 */
+		SUCCESS,
+
+		/**
+		 * The operation failed and its Continuation was notified through
+		 * onError
+		 */
+		ERROR,
+
+		/**
+		 * The operation failed throwing an exception
+		 */
+		EXCEPTION
+	}
+
+	/**
+	 * Returns the current time of a monotonic clock, in nanoseconds. Only
+	 * differences between two values are meaningful.
+	 * 
+	 * @return The current time in nanoseconds
+	 */
+	public long currentTime();
+
+	/**
+	 * Records the latency of an operation
+	 * 
+	 * @param operation
+	 *            The operation
+	 * @param outcome
+	 *            How it ended
+	 * @param nanos
+	 *            Time from its call to its completion, in nanoseconds
+	 */
+	public void record(Operation operation, Outcome outcome, long nanos);
+}
@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.AbstractList;
+import java.util.Collection;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * A MediaTee is a {@link Joinable} that distributes the media of a single
+ * source to any number of sinks.
+ * <p>
+ * The media received by its input {@link MediaSink} is sent by its output
+ * {@link MediaSrc} to every added sink. Implementations process the media
+ * once for all the sinks (encoding, packetization...) and adding or removing a
+ * sink does not depend on the number of sinks already added.
+ * </p>
+ * 
+ * <pre>
+ *                      ----------------------> viewer sink
+ *  presenter src -----> input  MediaTee output ---> viewer sink
+ *                      ----------------------> viewer sink
+ * </pre>
+ * 
+ * <p>
+ * A MediaTee is intended to be used with {@link #setSource(MediaSrc)},
+ * {@link #addSink(MediaSink)} and {@link #removeSink(MediaSink)}. Joining it
+ * to another Joinable also sends media in both directions, as with any other
+ * Joinable.
+ * </p>
+ */
+public abstract class MediaTee extends Joinable {
+
+	/**
+	 * Views of the output and input streams, kept for the whole life of the
+	 * tee so that the stream index of Joinable is built only once
+	 */
+	private final Collection<MediaSrc> srcs;
+	private final Collection<MediaSink> sinks;
+
+	MediaTee() {
+		srcs = new AbstractList<MediaSrc>() {
+
+			@Override
+			public MediaSrc get(int index) {
+				checkIndex(index);
+				return getOutput();
+			}
+
+			@Override
+			public int size() {
+				return 1;
+			}
+		};
+		sinks = new AbstractList<MediaSink>() {
+
+			@Override
+			public MediaSink get(int index) {
+				checkIndex(index);
+				return getInput();
+			}
+
+			@Override
+			public int size() {
+				return 1;
+			}
+		};
+	}
+
+	/**
+	 * Gets the MediaType distributed by this tee
+	 * 
+	 * @return The MediaType of the input and output streams
+	 */
+	public abstract MediaType getMediaType();
+
+	/**
+	 * Gets the sink that receives the media to distribute, always the same
+	 * one
+	 * 
+	 * @return The input MediaSink
+	 */
+	public abstract MediaSink getInput();
+
+	/**
+	 * Gets the source shared by all the added sinks, always the same one
+	 * 
+	 * @return The output MediaSrc
+	 */
+	public abstract MediaSrc getOutput();
+
+	/**
+	 * Releases the resources associated to this MediaTee.
+	 * <p>
+	 * Sinks added to the tee stop receiving media.
+	 * </p>
+	 */
+	public abstract void release();
+
+	@Override
+	public Collection<MediaSrc> getMediaSrcs() {
+		return srcs;
+	}
+
+	@Override
+	public Collection<MediaSink> getMediaSinks() {
+		return sinks;
+	}
+
+	/**
+	 * Sets the source of the distributed media, replacing the previous one
+	 * 
+	 * @param src
+	 *            A MediaSrc of the tee MediaType
+	 * @throws MediaException
+	 */
+	public void setSource(MediaSrc src) throws MediaException {
+		checkMediaType(src);
+		MediaSink input = getInput();
+		src.connect(input);
+		recordConnect(src, input);
+	}
+
+	/**
+	 * Starts sending the distributed media to <code>sink</code>
+	 * 
+	 * @param sink
+	 *            A MediaSink of the tee MediaType
+	 * @throws MediaException
+	 */
+	public void addSink(MediaSink sink) throws MediaException {
+		checkMediaType(sink);
+		MediaSrc output = getOutput();
+		output.connect(sink);
+		recordConnect(output, sink);
+	}
+
+	/**
+	 * Stops sending the distributed media to <code>sink</code>. Sinks not
+	 * added to this tee are ignored.
+	 * 
+	 * @param sink
+	 *            A MediaSink previously added
+	 * @throws MediaException
+	 */
+	public void removeSink(MediaSink sink) throws MediaException {
+		MediaSrc output = getOutput();
+		if (sink.getConnectedSrc() == output) {
+			output.disconnect(sink);
+		}
+		recordDisconnect(output, sink);
+	}
+
+	/**
+	 * Returns the number of sinks receiving the distributed media
+	 * 
+	 * @return The number of added sinks
+	 */
+	public int getSinkCount() {
+		return getConnectedSinkCount(getOutput());
+	}
+
+	private void checkMediaType(MediaStream stream) throws MediaException {
+		if (!getMediaType().equals(stream.getMediaType())) {
+			throw new MediaException("MediaTee of " + getMediaType()
+					+ " cannot accept a stream of " + stream.getMediaType());
+		}
+	}
+
+	private static void checkIndex(int index) {
+		if (index != 0) {
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", Size: 1");
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.kurento.mediaspec.Fraction;
+import com.kurento.mediaspec.MediaSpec;
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.Payload;
+import com.kurento.mediaspec.PayloadRtp;
+import com.kurento.mediaspec.SessionSpec;
+
+/**
+ * Cache of SessionSpec answers for NetworkConnection implementations.
+ * <p>
+ * Offers from the same kind of User Agent usually differ only in their
+ * transports. The cache keys each offer by a fingerprint of the direction,
+ * MediaTypes and payloads of its MediaSpecs, in order, which leaves out
+ * ports and addresses, and keeps the answer template negotiated for it. A repeated
+ * offer gets a copy of the template, so only the transports need to be
+ * filled in.
+ * </p>
+ * <p>
+ * The cache is bounded and evicts the least recently used template. This
+ * class is thread-safe.
+ * </p>
+ */
+public final class NegotiationCache {
+
+	/**
+	 * Computes the answer template for an offer not found in the cache
+	 */
+	public interface Negotiator {
+
+		/**
+		 * Negotiates the payloads and directions of an offer
+		 * 
+		 * @param offer
+		 *            SessionSpec offer from the remote User Agent
+		 * @return The answer, with or without transports
+		 * @throws MediaException
+		 *             If the offer is not acceptable; nothing is cached then
+		 */
+		public SessionSpec negotiate(SessionSpec offer) throws MediaException;
+	}
+
+	private final Map<String, SessionSpec> templates;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a cache
+	 * 
+	 * @param maxSize
+	 *            Maximum number of answer templates kept
+	 */
+	public NegotiationCache(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		templates = new LruMap<String, SessionSpec>(maxSize);
+	}
+
+	/**
+	 * Returns the answer template for an offer, negotiating it if it is not
+	 * cached
+	 * 
+	 * @param offer
+	 *            SessionSpec offer from the remote User Agent
+	 * @param negotiator
+	 *            Negotiator used on cache misses
+	 * @return A copy of the answer template, owned by the caller
+	 * @throws MediaException
+	 *             If the negotiator rejects the offer
+	 */
+	public SessionSpec getAnswer(SessionSpec offer, Negotiator negotiator)
+			throws MediaException {
+		String key = fingerprint(offer);
+		SessionSpec template;
+
+		synchronized (this) {
+			template = templates.get(key);
+			if (template != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+		}
+
+		if (template == null) {
+			template = negotiator.negotiate(offer);
+			if (template == null) {
+				throw new MediaException("Negotiator returned no answer");
+			}
+			template = template.deepCopy();
+			synchronized (this) {
+				templates.put(key, template);
+			}
+		}
+
+		return template.deepCopy();
+	}
+
+	/**
+	 * Removes all templates, for example after a change of the media server
+	 * capabilities
+	 */
+	public synchronized void clear() {
+		templates.clear();
+	}
+
+	/**
+	 * @return The number of templates cached
+	 */
+	public synchronized int size() {
+		return templates.size();
+	}
+
+	/**
+	 * @return The number of offers answered from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of offers that had to be negotiated
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The fraction of offers answered from the cache, 0 if there was
+	 *         none
+	 */
+	public synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the canonical form of the negotiable parts of an offer: the
+	 * direction, MediaTypes and payloads of each MediaSpec, in order
+	 */
+	static String fingerprint(SessionSpec offer) {
+		StringBuilder key = new StringBuilder();
+		List<MediaSpec> medias = offer == null ? null : offer.getMedias();
+		if (medias != null) {
+			for (MediaSpec media : medias) {
+				appendFingerprint(key, media);
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the canonical form of the direction, MediaTypes and payloads of
+	 * a MediaSpec
+	 */
+	static String fingerprint(MediaSpec media) {
+		StringBuilder key = new StringBuilder();
+		appendFingerprint(key, media);
+		return key.toString();
+	}
+
+	/**
+	 * Appends the fields of a MediaSpec one by one, in a fixed order, so the
+	 * fingerprint does not depend on the iteration order of its sets and
+	 * maps. Strings are prefixed with their length, so no value can be
+	 * mistaken for a separator.
+	 */
+	private static void appendFingerprint(StringBuilder key, MediaSpec media) {
+		key.append('[').append(media.getDirection());
+
+		Set<MediaType> types = media.getType();
+		key.append('|');
+		if (types != null) {
+			for (MediaType type : MediaType.values()) {
+				if (types.contains(type)) {
+					key.append(type.ordinal()).append(',');
+				}
+			}
+		}
+
+		List<Payload> payloads = media.getPayloads();
+		if (payloads != null) {
+			for (Payload payload : payloads) {
+				key.append('|');
+				if (payload.isSetRtp()) {
+					appendFingerprint(key, payload.getRtp());
+				}
+			}
+		}
+		key.append(']');
+	}
+
+	private static void appendFingerprint(StringBuilder key, PayloadRtp rtp) {
+		key.append(rtp.getId()).append(',');
+		appendString(key, rtp.getCodecName());
+		key.append(rtp.getClockRate()).append(',');
+		key.append(rtp.isSetChannels() ? rtp.getChannels() : -1).append(',');
+		key.append(rtp.isSetWidth() ? rtp.getWidth() : -1).append(',');
+		key.append(rtp.isSetHeight() ? rtp.getHeight() : -1).append(',');
+		key.append(rtp.isSetBitrate() ? rtp.getBitrate() : -1).append(',');
+		if (rtp.isSetFramerate()) {
+			Fraction framerate = rtp.getFramerate();
+			key.append(framerate.getNum()).append('/')
+					.append(framerate.getDenom());
+		}
+		key.append(',');
+
+		if (rtp.isSetExtraParams()) {
+			Map<String, String> params = new TreeMap<String, String>(
+					rtp.getExtraParams());
+			for (Map.Entry<String, String> param : params.entrySet()) {
+				appendString(key, param.getKey());
+				appendString(key, param.getValue());
+			}
+		}
+	}
+
+	private static void appendString(StringBuilder key, String value) {
+		if (value == null) {
+			key.append('-');
+		} else {
+			key.append(value.length()).append(':').append(value);
+		}
+	}
+}
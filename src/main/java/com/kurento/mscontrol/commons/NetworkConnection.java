@@ -138,6 +138,15 @@ import com.kurento.mediaspec.SessionSpec;
  */
 public abstract class NetworkConnection extends Joinable {
 
+	private volatile CallbackDispatcher callbackDispatcher = CallbackDispatcher.DIRECT;
+
+	/**
+	 * Runs the notifications of ProgressiveContinuations in order, it holds
+	 * no state once they have been delivered
+	 */
+	private volatile CallbackDispatcher progressDispatcher = new SerialCallbackDispatcher(
+			CallbackDispatcher.DIRECT);
+
 	NetworkConnection() {
 	}
 
@@ -151,6 +160,40 @@ public abstract class NetworkConnection extends Joinable {
 	 */
 	public abstract void release();
 
+	/**
+	 * Prepares this NetworkConnection for a new call, as an alternative to
+	 * releasing it and creating a new one.
+	 * <p>
+	 * All its joins are removed and its local and remote SessionSpecs are
+	 * dropped, so it can generate or process a new offer, but the transport
+	 * resources it allocated are kept. Implementations that can not be reset
+	 * this way return false, and the connection should be released then.
+	 * </p>
+	 * 
+	 * @return true if the connection was reset, false if it is not recyclable
+	 * @throws MediaException
+	 *             if it could not be reset, it should be released then
+	 */
+	public final boolean recycle() throws MediaException {
+		unjoinAll();
+		return reset();
+	}
+
+	/**
+	 * Drops the local and remote SessionSpecs, keeping the transport
+	 * resources. Called by {@link #recycle()} once all joins are removed.
+	 * Implementations that support recycling override this method, the
+	 * default one leaves the connection untouched.
+	 * 
+	 * @return true if the connection was reset, false if it does not support
+	 *         being reset
+	 * @throws MediaException
+	 *             if the connection could not be reset
+	 */
+	protected boolean reset() throws MediaException {
+		return false;
+	}
+
 	/**
 	 * Request that all pending allocations/initializations are completed.
 	 * 
@@ -169,7 +212,10 @@ public abstract class NetworkConnection extends Joinable {
 	 * </p>
 	 * 
 	 * <p>
-	 * This can be used to initiate a connection.
+	 * This can be used to initiate a connection. Called on a connection that
+	 * has already negotiated, it starts a renegotiation: implementations that
+	 * support it offer the current media again, so that streams and joins
+	 * are kept, and fail otherwise.
 	 * </p>
 	 * 
 	 * @param cont
@@ -183,6 +229,13 @@ public abstract class NetworkConnection extends Joinable {
 	 * The resulting answer is available with
 	 * {@link NetworkConnection#getSessionSpec()} and the remote offer will be
 	 * returned by {@link NetworkConnection#getRemoteSessionSpec()}
+	 * <p>
+	 * Called on a connection that has already negotiated, the offer is a
+	 * renegotiation. Implementations that support it compare it with the
+	 * previous remote SessionSpec, see {@link SessionSpecDiff}, and only
+	 * update the media that changed, keeping the streams and joins of the
+	 * rest. Implementations that do not support it fail.
+	 * </p>
 	 * 
 	 * @param offer
 	 *            SessionSpec offer from the remote User Agent
@@ -236,6 +289,122 @@ public abstract class NetworkConnection extends Joinable {
 	 */
 	public abstract SessionSpec getRemoteSessionSpec();
 
+	/**
+	 * Sets the dispatcher that runs the {@link Continuation}s of this
+	 * NetworkConnection.
+	 * <p>
+	 * By default Continuations run on the thread that completes the
+	 * operation, which may be an I/O thread of the implementation. A slow
+	 * Continuation should then be moved to another thread, see
+	 * <code>com.kurento.mscontrol.commons.server.CallbackDispatchers</code>
+	 * for the available policies.
+	 * </p>
+	 * 
+	 * @param dispatcher
+	 *            The dispatcher for the Continuations of later operations
+	 */
+	public void setCallbackDispatcher(CallbackDispatcher dispatcher) {
+		if (dispatcher == null) {
+			throw new NullPointerException("Callback dispatcher is null");
+		}
+		progressDispatcher = new SerialCallbackDispatcher(dispatcher);
+		callbackDispatcher = dispatcher;
+	}
+
+	/**
+	 * @return The dispatcher that runs the Continuations of this
+	 *         NetworkConnection
+	 */
+	public CallbackDispatcher getCallbackDispatcher() {
+		return callbackDispatcher;
+	}
+
+	/**
+	 * Notifies the success of an operation through the callback dispatcher.
+	 * Implementations should use it instead of calling cont directly.
+	 * 
+	 * @param cont
+	 *            Continuation of the operation
+	 * @param spec
+	 *            Resulting SessionSpec
+	 */
+	protected final void dispatchSuccess(final Continuation cont,
+			final SessionSpec spec) {
+		dispatchFinal(cont, new Runnable() {
+
+			@Override
+			public void run() {
+				cont.onSucess(spec);
+			}
+		});
+	}
+
+	/**
+	 * Notifies the failure of an operation through the callback dispatcher.
+	 * Implementations should use it instead of calling cont directly, and so
+	 * should code that fails an operation on their behalf, like a timeout.
+	 * The notification is delivered after the partial ones already
+	 * dispatched.
+	 * 
+	 * @param cont
+	 *            Continuation of the operation
+	 * @param cause
+	 *            The cause of the failure
+	 */
+	public final void dispatchError(final Continuation cont,
+			final Throwable cause) {
+		dispatchFinal(cont, new Runnable() {
+
+			@Override
+			public void run() {
+				cont.onError(cause);
+			}
+		});
+	}
+
+	/**
+	 * Notifies that the MediaSpec at the given position of a SessionSpec
+	 * being generated is ready, if cont is a {@link ProgressiveContinuation}.
+	 * Implementations should call it as each MediaSpec becomes ready and
+	 * before the final notification, which is then delivered after all the
+	 * partial ones.
+	 * 
+	 * @param cont
+	 *            Continuation of the operation
+	 * @param partial
+	 *            SessionSpec with the MediaSpecs ready so far, it must not be
+	 *            modified afterwards
+	 * @param index
+	 *            Position of the MediaSpec that became ready
+	 */
+	protected final void dispatchPartial(Continuation cont,
+			final SessionSpec partial, final int index) {
+		if (!(cont instanceof ProgressiveContinuation)) {
+			return;
+		}
+
+		final ProgressiveContinuation progressive = (ProgressiveContinuation) cont;
+		progressDispatcher.dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				progressive.onMediaReady(partial, index);
+			}
+		});
+	}
+
+	/**
+	 * Dispatches the final notification of an operation behind its partial
+	 * ones, if any
+	 */
+	private void dispatchFinal(Continuation cont, Runnable notification) {
+		if (cont instanceof ProgressiveContinuation) {
+			progressDispatcher.dispatch(notification);
+		} else {
+			callbackDispatcher.dispatch(notification);
+		}
+	}
+
 	/**
 	 * Used as a callback for some asynchronous NetworkConnection actions
 	 * 
@@ -258,4 +427,31 @@ public abstract class NetworkConnection extends Joinable {
 		 */
 		public void onError(Throwable cause);
 	}
+
+	/**
+	 * Continuation that is also notified of each MediaSpec as soon as it is
+	 * ready, so that signalling can start with the fastest media, usually
+	 * audio, while the rest is still being generated.
+	 * <p>
+	 * {@link #onSucess(SessionSpec)} is still called with the complete
+	 * SessionSpec at the end. Implementations that generate the whole
+	 * SessionSpec at once may call it only. Partial notifications and the
+	 * final one run on the callback dispatcher one at a time, in order, even
+	 * with a dispatcher that uses several threads.
+	 * </p>
+	 */
+	public interface ProgressiveContinuation extends Continuation {
+
+		/**
+		 * This method is called when a MediaSpec is ready
+		 * 
+		 * @param partial
+		 *            SessionSpec with the MediaSpecs ready so far; those not
+		 *            ready yet are missing, so positions may not match the
+		 *            final SessionSpec
+		 * @param index
+		 *            Position of the ready MediaSpec in the final SessionSpec
+		 */
+		public void onMediaReady(SessionSpec partial, int index);
+	}
 }
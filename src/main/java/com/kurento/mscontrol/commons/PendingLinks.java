@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.List;
+
+import com.kurento.mscontrol.commons.Joinable.JoinContinuation;
+
+/**
+ * Aggregates the results of the link requests issued by an asynchronous join
+ * or unjoin and notifies the caller once, when all of them have completed.
+ * <p>
+ * Requests may complete on any thread and in any order.
+ * </p>
+ */
+final class PendingLinks {
+
+	private final JoinContinuation cont;
+
+	private int pending;
+	private Throwable error;
+
+	PendingLinks(int requests, JoinContinuation cont) {
+		this.cont = cont;
+		this.pending = requests;
+		if (requests == 0) {
+			cont.onSucess();
+		}
+	}
+
+	/**
+	 * Returns the continuation of a request linking src to sinks
+	 */
+	JoinContinuation connected(final MediaSrc src, final List<MediaSink> sinks) {
+		return new Request() {
+
+			@Override
+			void succeeded() {
+				for (MediaSink sink : sinks) {
+					Joinable.recordConnect(src, sink);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the continuation of a request unlinking src from sinks
+	 */
+	JoinContinuation disconnected(final MediaSrc src,
+			final List<MediaSink> sinks) {
+		return new Request() {
+
+			@Override
+			void succeeded() {
+				for (MediaSink sink : sinks) {
+					Joinable.recordDisconnect(src, sink);
+				}
+			}
+		};
+	}
+
+	private void completed(Throwable cause) {
+		boolean last;
+		Throwable result;
+
+		synchronized (this) {
+			if (cause != null && error == null) {
+				error = cause;
+			}
+			last = --pending == 0;
+			result = error;
+		}
+
+		if (!last) {
+			return;
+		}
+
+		if (result != null) {
+			cont.onError(result);
+		} else {
+			cont.onSucess();
+		}
+	}
+
+	private abstract class Request implements JoinContinuation {
+
+		private boolean done;
+
+		abstract void succeeded();
+
+		private synchronized boolean complete() {
+			if (done) {
+				return false;
+			}
+			done = true;
+			return true;
+		}
+
+		@Override
+		public void onSucess() {
+			if (complete()) {
+				succeeded();
+				completed(null);
+			}
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			if (complete()) {
+				completed(cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.LinkedList;
+
+/**
+ * Dispatcher that runs callbacks one at a time and in the order they were
+ * dispatched, on the threads of another dispatcher.
+ * <p>
+ * The queued callbacks are drained by a single task dispatched through the
+ * target whenever the queue was idle. If the target rejects that task, the
+ * callback is dropped and the exception is thrown to the caller. If a
+ * callback throws, the callbacks behind it are run by a new task, or on the
+ * same thread if the target rejects it, so none of them is left queued.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class SerialCallbackDispatcher implements CallbackDispatcher,
+		Runnable {
+
+	private final CallbackDispatcher target;
+	private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+	private boolean running;
+
+	/**
+	 * Creates a dispatcher
+	 * 
+	 * @param target
+	 *            Dispatcher running the callbacks
+	 */
+	public SerialCallbackDispatcher(CallbackDispatcher target) {
+		if (target == null) {
+			throw new NullPointerException("target dispatcher is null");
+		}
+		this.target = target;
+	}
+
+	@Override
+	public void dispatch(Runnable callback) {
+		synchronized (tasks) {
+			tasks.add(callback);
+			if (running) {
+				return;
+			}
+			running = true;
+		}
+
+		try {
+			target.dispatch(this);
+		} catch (RuntimeException e) {
+			synchronized (tasks) {
+				tasks.remove(callback);
+				running = false;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the queued callbacks, it is only meant to be called by the target
+	 */
+	@Override
+	public void run() {
+		for (;;) {
+			Runnable task;
+			synchronized (tasks) {
+				task = tasks.poll();
+				if (task == null) {
+					running = false;
+					return;
+				}
+			}
+
+			boolean completed = false;
+			try {
+				task.run();
+				completed = true;
+			} finally {
+				if (!completed) {
+					// The failure propagates, the callbacks behind it still
+					// run
+					resubmit();
+				}
+			}
+		}
+	}
+
+	private void resubmit() {
+		try {
+			target.dispatch(this);
+		} catch (RuntimeException e) {
+			run();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.kurento.mediaspec.MediaSpec;
+import com.kurento.mediaspec.SessionSpec;
+
+/**
+ * Per MediaSpec differences between two SessionSpecs, used to renegotiate a
+ * NetworkConnection without touching the media that did not change.
+ * <p>
+ * MediaSpecs are matched by position, as in the offer/answer model, and
+ * compared by direction and payloads. Transports are not compared, since
+ * implementations apply them on every negotiation anyway.
+ * </p>
+ */
+public final class SessionSpecDiff {
+
+	/**
+	 * Change of one MediaSpec
+	 */
+	public enum Change {
+		/**
+		 * Same direction and payloads in both SessionSpecs
+		 */
+		UNCHANGED,
+		/**
+		 * Different direction or payloads
+		 */
+		MODIFIED,
+		/**
+		 * Only in the new SessionSpec
+		 */
+		ADDED,
+		/**
+		 * Only in the previous SessionSpec
+		 */
+		REMOVED
+	}
+
+	private final Change[] changes;
+
+	private SessionSpecDiff(Change[] changes) {
+		this.changes = changes;
+	}
+
+	/**
+	 * Compares two SessionSpecs
+	 * 
+	 * @param previous
+	 *            SessionSpec negotiated before, may be null
+	 * @param next
+	 *            New SessionSpec, may be null
+	 * @return The changes, one per MediaSpec position
+	 */
+	public static SessionSpecDiff compare(SessionSpec previous,
+			SessionSpec next) {
+		List<MediaSpec> before = medias(previous);
+		List<MediaSpec> after = medias(next);
+		Change[] changes = new Change[Math.max(before.size(), after.size())];
+
+		for (int i = 0; i < changes.length; i++) {
+			if (i >= before.size()) {
+				changes[i] = Change.ADDED;
+			} else if (i >= after.size()) {
+				changes[i] = Change.REMOVED;
+			} else if (NegotiationCache.fingerprint(before.get(i)).equals(
+					NegotiationCache.fingerprint(after.get(i)))) {
+				changes[i] = Change.UNCHANGED;
+			} else {
+				changes[i] = Change.MODIFIED;
+			}
+		}
+		return new SessionSpecDiff(changes);
+	}
+
+	/**
+	 * @return The number of MediaSpec positions compared
+	 */
+	public int size() {
+		return changes.length;
+	}
+
+	/**
+	 * @param index
+	 *            Position of a MediaSpec
+	 * @return The change of the MediaSpec at that position
+	 */
+	public Change getChange(int index) {
+		return changes[index];
+	}
+
+	/**
+	 * @return true if no MediaSpec changed
+	 */
+	public boolean isUnchanged() {
+		for (Change change : changes) {
+			if (change != Change.UNCHANGED) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < changes.length; i++) {
+			if (i > 0) {
+				str.append(", ");
+			}
+			str.append(i).append('=').append(changes[i]);
+		}
+		return str.toString();
+	}
+
+	private static List<MediaSpec> medias(SessionSpec spec) {
+		if (spec == null || spec.getMedias() == null) {
+			return Collections.emptyList();
+		}
+		return spec.getMedias();
+	}
+}
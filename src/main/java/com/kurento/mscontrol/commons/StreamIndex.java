@@ -0,0 +1,235 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Streams of a {@link Joinable} grouped by {@link MediaType}.
+ * <p>
+ * The index is built once from {@link Joinable#getMediaSrcs()} and
+ * {@link Joinable#getMediaSinks()} and reused while both methods return the
+ * same collections with the same sizes, until the Joinable reports that its
+ * streams have changed. Matching two Joinables only visits buckets of the
+ * same MediaType and does not allocate.
+ * </p>
+ */
+final class StreamIndex {
+
+	private static final MediaSrc[] NO_SRCS = new MediaSrc[0];
+	private static final MediaSink[] NO_SINKS = new MediaSink[0];
+
+	/**
+	 * Streams of one MediaType, in the order given by the Joinable
+	 */
+	static final class Bucket {
+
+		final MediaType type;
+		MediaSrc[] srcs = NO_SRCS;
+		MediaSink[] sinks = NO_SINKS;
+
+		private Bucket(MediaType type) {
+			this.type = type;
+		}
+	}
+
+	private final Map<MediaType, Bucket> byType;
+	private final Bucket[] buckets;
+
+	private final MediaSrc[] srcs;
+	private final MediaSink[] sinks;
+	private final StreamLayout layout;
+
+	/**
+	 * Collections the index was built from and their sizes at the time
+	 */
+	private final Collection<MediaSrc> srcSource;
+	private final Collection<MediaSink> sinkSource;
+	private final int srcSourceSize;
+	private final int sinkSourceSize;
+
+	/**
+	 * Last plan used to join this index, most Joinables are joined to the
+	 * same layout again and again
+	 */
+	private volatile CachedPlan lastPlan;
+
+	private static final class CachedPlan {
+
+		final StreamLayout remote;
+		final JoinPlan plan;
+
+		CachedPlan(StreamLayout remote, JoinPlan plan) {
+			this.remote = remote;
+			this.plan = plan;
+		}
+	}
+
+	StreamIndex(Collection<MediaSrc> srcs, Collection<MediaSink> sinks) {
+		Map<MediaType, List<MediaSrc>> srcsByType = new HashMap<MediaType, List<MediaSrc>>();
+		Map<MediaType, List<MediaSink>> sinksByType = new HashMap<MediaType, List<MediaSink>>();
+		List<MediaType> order = new ArrayList<MediaType>();
+		List<MediaSrc> typedSrcs = new ArrayList<MediaSrc>();
+		List<MediaSink> typedSinks = new ArrayList<MediaSink>();
+
+		if (srcs != null) {
+			for (MediaSrc src : srcs) {
+				MediaType type = src.getMediaType();
+				if (type == null) {
+					continue;
+				}
+				List<MediaSrc> list = srcsByType.get(type);
+				if (list == null) {
+					list = new ArrayList<MediaSrc>();
+					srcsByType.put(type, list);
+					order.add(type);
+				}
+				list.add(src);
+				typedSrcs.add(src);
+			}
+		}
+
+		if (sinks != null) {
+			for (MediaSink sink : sinks) {
+				MediaType type = sink.getMediaType();
+				if (type == null) {
+					continue;
+				}
+				List<MediaSink> list = sinksByType.get(type);
+				if (list == null) {
+					list = new ArrayList<MediaSink>();
+					sinksByType.put(type, list);
+					if (!srcsByType.containsKey(type)) {
+						order.add(type);
+					}
+				}
+				list.add(sink);
+				typedSinks.add(sink);
+			}
+		}
+
+		byType = new HashMap<MediaType, Bucket>();
+		buckets = new Bucket[order.size()];
+		for (int i = 0; i < buckets.length; i++) {
+			MediaType type = order.get(i);
+			Bucket bucket = new Bucket(type);
+			List<MediaSrc> typeSrcs = srcsByType.get(type);
+			if (typeSrcs != null) {
+				bucket.srcs = typeSrcs.toArray(new MediaSrc[typeSrcs.size()]);
+			}
+			List<MediaSink> typeSinks = sinksByType.get(type);
+			if (typeSinks != null) {
+				bucket.sinks = typeSinks.toArray(new MediaSink[typeSinks
+						.size()]);
+			}
+			buckets[i] = bucket;
+			byType.put(type, bucket);
+		}
+
+		this.srcs = typedSrcs.toArray(new MediaSrc[typedSrcs.size()]);
+		this.sinks = typedSinks.toArray(new MediaSink[typedSinks.size()]);
+
+		MediaType[] srcTypes = new MediaType[this.srcs.length];
+		for (int i = 0; i < srcTypes.length; i++) {
+			srcTypes[i] = this.srcs[i].getMediaType();
+		}
+		MediaType[] sinkTypes = new MediaType[this.sinks.length];
+		for (int i = 0; i < sinkTypes.length; i++) {
+			sinkTypes[i] = this.sinks[i].getMediaType();
+		}
+		layout = StreamLayout.intern(srcTypes, sinkTypes);
+
+		srcSource = srcs;
+		sinkSource = sinks;
+		srcSourceSize = srcs != null ? srcs.size() : 0;
+		sinkSourceSize = sinks != null ? sinks.size() : 0;
+	}
+
+	/**
+	 * Returns true if the index was built from these collections and their
+	 * sizes have not changed since. Streams replaced in place are not
+	 * detected.
+	 */
+	boolean isBuiltFrom(Collection<MediaSrc> srcs,
+			Collection<MediaSink> sinks) {
+		return srcs == srcSource && sinks == sinkSource
+				&& (srcs == null || srcs.size() == srcSourceSize)
+				&& (sinks == null || sinks.size() == sinkSourceSize);
+	}
+
+	/**
+	 * Returns the MediaTypes of the indexed streams, in order
+	 */
+	StreamLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Returns the plan to join this index to <code>remote</code>
+	 */
+	JoinPlan getPlan(StreamIndex remote) {
+		CachedPlan cached = lastPlan;
+		if (cached != null && cached.remote == remote.layout) {
+			return cached.plan;
+		}
+
+		JoinPlan plan = layout.getPlan(remote.layout);
+		lastPlan = new CachedPlan(remote.layout, plan);
+		return plan;
+	}
+
+	/**
+	 * Returns the i-th indexed MediaSrc, as ordered in the layout
+	 */
+	MediaSrc getSrc(int i) {
+		return srcs[i];
+	}
+
+	/**
+	 * Returns the i-th indexed MediaSink, as ordered in the layout
+	 */
+	MediaSink getSink(int i) {
+		return sinks[i];
+	}
+
+	/**
+	 * Returns the number of MediaTypes with at least one stream
+	 */
+	int size() {
+		return buckets.length;
+	}
+
+	/**
+	 * Returns the i-th bucket, in order of first appearance of its MediaType
+	 */
+	Bucket get(int i) {
+		return buckets[i];
+	}
+
+	/**
+	 * Returns the bucket for the given MediaType or null if there is no
+	 * stream of that type
+	 */
+	Bucket get(MediaType type) {
+		return byType.get(type);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Ordered MediaTypes of the sources and sinks of a {@link Joinable}.
+ * <p>
+ * Layouts are interned, so Joinables with the same streams share the same
+ * instance, and each layout keeps the {@link JoinPlan}s compiled against the
+ * layouts it has been joined with. Both tables are bounded and evict the
+ * least recently used entry.
+ * </p>
+ */
+final class StreamLayout {
+
+	static final int MAX_LAYOUTS = 256;
+	static final int MAX_PLANS_PER_LAYOUT = 32;
+
+	private static final Map<StreamLayout, StreamLayout> layouts = new LruMap<StreamLayout, StreamLayout>(
+			MAX_LAYOUTS);
+
+	final MediaType[] srcTypes;
+	final MediaType[] sinkTypes;
+
+	private final int hash;
+
+	private final Map<StreamLayout, JoinPlan> plans = new LruMap<StreamLayout, JoinPlan>(
+			MAX_PLANS_PER_LAYOUT);
+
+	private StreamLayout(MediaType[] srcTypes, MediaType[] sinkTypes) {
+		this.srcTypes = srcTypes;
+		this.sinkTypes = sinkTypes;
+		this.hash = 31 * Arrays.hashCode(srcTypes) + Arrays.hashCode(sinkTypes);
+	}
+
+	/**
+	 * Returns the shared layout for the given stream types
+	 */
+	static StreamLayout intern(MediaType[] srcTypes, MediaType[] sinkTypes) {
+		StreamLayout layout = new StreamLayout(srcTypes, sinkTypes);
+
+		synchronized (layouts) {
+			StreamLayout interned = layouts.get(layout);
+			if (interned != null) {
+				return interned;
+			}
+			layouts.put(layout, layout);
+			return layout;
+		}
+	}
+
+	/**
+	 * Returns the plan to join a Joinable with this layout to one with the
+	 * other layout, compiling it the first time
+	 */
+	JoinPlan getPlan(StreamLayout other) {
+		JoinPlan plan;
+
+		synchronized (plans) {
+			plan = plans.get(other);
+		}
+		if (plan != null) {
+			return plan;
+		}
+
+		plan = JoinPlan.compile(this, other);
+		synchronized (plans) {
+			plans.put(other, plan);
+		}
+		return plan;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof StreamLayout)) {
+			return false;
+		}
+		StreamLayout other = (StreamLayout) obj;
+		return hash == other.hash && Arrays.equals(srcTypes, other.srcTypes)
+				&& Arrays.equals(sinkTypes, other.sinkTypes);
+	}
+
+	@Override
+	public String toString() {
+		return "srcs=" + Arrays.toString(srcTypes) + " sinks="
+				+ Arrays.toString(sinkTypes);
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Local accounting of the media server capacity, to reject requests before
+ * they reach an overloaded server.
+ * <p>
+ * Capacity is counted in streams per MediaType. A request takes a
+ * {@link Permit} with one stream of each of its MediaTypes before creating
+ * or negotiating a NetworkConnection, and releases it with the connection.
+ * Permits start reserved and become used once the negotiation completes, so
+ * both figures can be monitored; both count towards the capacity.
+ * </p>
+ * <pre>
+ * Permit permit = controller.admit(MediaType.AUDIO, MediaType.VIDEO);
+ * nc.generateSessionSpecOffer(...); // permit.use() when negotiated
+ * ...
+ * nc.release();
+ * permit.release();
+ * </pre>
+ * <p>
+ * {@link #admit(MediaType...)} fails at once with an
+ * {@link AdmissionException} when there is no capacity left, while
+ * {@link #admit(long, TimeUnit, MediaType...)} waits a bounded time, with a
+ * bounded number of waiting requests. MediaTypes without a configured
+ * capacity are not limited. This class is thread-safe.
+ * </p>
+ */
+public final class AdmissionController {
+
+	private static final class Counter {
+
+		int capacity;
+		int reserved;
+		int used;
+	}
+
+	/**
+	 * Capacity taken by one request
+	 */
+	public final class Permit {
+
+		private final Counter[] counters;
+		private boolean used;
+		private boolean released;
+
+		private Permit(Counter[] counters) {
+			this.counters = counters;
+		}
+
+		/**
+		 * Marks this permit as used, once its negotiation has completed
+		 */
+		public void use() {
+			synchronized (AdmissionController.this) {
+				if (used || released) {
+					return;
+				}
+				used = true;
+				for (Counter counter : counters) {
+					counter.reserved--;
+					counter.used++;
+				}
+			}
+		}
+
+		/**
+		 * Returns the capacity of this permit. Calling it again has no
+		 * effect.
+		 */
+		public void release() {
+			synchronized (AdmissionController.this) {
+				if (released) {
+					return;
+				}
+				released = true;
+				for (Counter counter : counters) {
+					if (used) {
+						counter.used--;
+					} else {
+						counter.reserved--;
+					}
+				}
+				if (waiters > 0) {
+					AdmissionController.this.notifyAll();
+				}
+			}
+		}
+	}
+
+	private final Map<MediaType, Counter> counters = new HashMap<MediaType, Counter>();
+	private final int maxWaiters;
+
+	private int waiters;
+	private long admitted;
+	private long rejected;
+
+	/**
+	 * Creates a controller without limits
+	 * 
+	 * @param maxWaiters
+	 *            Maximum number of requests waiting for capacity
+	 */
+	public AdmissionController(int maxWaiters) {
+		if (maxWaiters < 0) {
+			throw new IllegalArgumentException("Negative waiters: "
+					+ maxWaiters);
+		}
+		this.maxWaiters = maxWaiters;
+	}
+
+	/**
+	 * Sets the number of streams of a MediaType the media server can hold.
+	 * Lowering it below the current load only affects new requests.
+	 * 
+	 * @param type
+	 *            The MediaType
+	 * @param capacity
+	 *            Its capacity
+	 */
+	public synchronized void setCapacity(MediaType type, int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Negative capacity: "
+					+ capacity);
+		}
+		counter(type).capacity = capacity;
+		if (waiters > 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Takes capacity for one stream of each MediaType, failing at once if
+	 * there is none
+	 * 
+	 * @param types
+	 *            MediaTypes of the request
+	 * @return The permit
+	 * @throws AdmissionException
+	 *             With reason CAPACITY_EXHAUSTED if any MediaType is full
+	 */
+	public synchronized Permit admit(MediaType... types)
+			throws AdmissionException {
+		Counter[] taken = lookup(types);
+		MediaType full = findFull(types, taken);
+		if (full != null) {
+			rejected++;
+			throw new AdmissionException(
+					AdmissionException.Reason.CAPACITY_EXHAUSTED, full);
+		}
+		return take(taken);
+	}
+
+	/**
+	 * Takes capacity for one stream of each MediaType, waiting up to the
+	 * given time for it to be freed
+	 * 
+	 * @param timeout
+	 *            Maximum time to wait
+	 * @param unit
+	 *            Unit of timeout
+	 * @param types
+	 *            MediaTypes of the request
+	 * @return The permit
+	 * @throws AdmissionException
+	 *             With reason QUEUE_FULL if too many requests are waiting, or
+	 *             TIMEOUT if no capacity was freed in time
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting
+	 */
+	public synchronized Permit admit(long timeout, TimeUnit unit,
+			MediaType... types) throws AdmissionException,
+			InterruptedException {
+		Counter[] taken = lookup(types);
+		MediaType full = findFull(types, taken);
+		if (full == null) {
+			return take(taken);
+		}
+
+		if (waiters >= maxWaiters) {
+			rejected++;
+			throw new AdmissionException(
+					AdmissionException.Reason.QUEUE_FULL, null);
+		}
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		waiters++;
+		try {
+			while ((full = findFull(types, taken)) != null) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					rejected++;
+					throw new AdmissionException(
+							AdmissionException.Reason.TIMEOUT, full);
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		} finally {
+			waiters--;
+		}
+		return take(taken);
+	}
+
+	/**
+	 * @return The capacity of a MediaType, or -1 if it is not limited
+	 */
+	public synchronized int getCapacity(MediaType type) {
+		Counter counter = counters.get(type);
+		if (counter == null || counter.capacity == Integer.MAX_VALUE) {
+			return -1;
+		}
+		return counter.capacity;
+	}
+
+	/**
+	 * @return The number of reserved streams of a MediaType
+	 */
+	public synchronized int getReserved(MediaType type) {
+		Counter counter = counters.get(type);
+		return counter == null ? 0 : counter.reserved;
+	}
+
+	/**
+	 * @return The number of used streams of a MediaType
+	 */
+	public synchronized int getUsed(MediaType type) {
+		Counter counter = counters.get(type);
+		return counter == null ? 0 : counter.used;
+	}
+
+	/**
+	 * @return The number of requests waiting for capacity
+	 */
+	public synchronized int getWaiting() {
+		return waiters;
+	}
+
+	/**
+	 * @return The number of permits given
+	 */
+	public synchronized long getAdmitted() {
+		return admitted;
+	}
+
+	/**
+	 * @return The number of requests rejected
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	private Counter counter(MediaType type) {
+		Counter counter = counters.get(type);
+		if (counter == null) {
+			counter = new Counter();
+			counter.capacity = Integer.MAX_VALUE;
+			counters.put(type, counter);
+		}
+		return counter;
+	}
+
+	private Counter[] lookup(MediaType[] types) {
+		Counter[] taken = new Counter[types.length];
+		for (int i = 0; i < types.length; i++) {
+			taken[i] = counter(types[i]);
+		}
+		return taken;
+	}
+
+	/**
+	 * Returns the first MediaType without capacity for the request, counting
+	 * repeated MediaTypes once per stream
+	 */
+	private static MediaType findFull(MediaType[] types, Counter[] taken) {
+		for (int i = 0; i < taken.length; i++) {
+			int needed = 1;
+			for (int j = 0; j < i; j++) {
+				if (taken[j] == taken[i]) {
+					needed++;
+				}
+			}
+			Counter counter = taken[i];
+			if (counter.reserved + counter.used + needed > counter.capacity) {
+				return types[i];
+			}
+		}
+		return null;
+	}
+
+	private Permit take(Counter[] taken) {
+		for (Counter counter : taken) {
+			counter.reserved++;
+		}
+		admitted++;
+		return new Permit(taken);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.MediaException;
+
+/**
+ * Thrown by an {@link AdmissionController} when a request is rejected
+ * locally, without reaching the media server.
+ */
+public class AdmissionException extends MediaException {
+
+	private static final long serialVersionUID = -2829573402874066237L;
+
+	/**
+	 * Why a request was rejected
+	 */
+	public enum Reason {
+		/**
+		 * There is no capacity left for a MediaType
+		 */
+		CAPACITY_EXHAUSTED,
+		/**
+		 * Too many requests are already waiting for capacity
+		 */
+		QUEUE_FULL,
+		/**
+		 * No capacity was freed before the wait expired
+		 */
+		TIMEOUT
+	}
+
+	private final Reason reason;
+	private final MediaType mediaType;
+
+	/**
+	 * Constructs an AdmissionException
+	 * 
+	 * @param reason
+	 *            Why the request was rejected
+	 * @param mediaType
+	 *            MediaType without capacity, or null if the reason is not
+	 *            related to a MediaType
+	 */
+	public AdmissionException(Reason reason, MediaType mediaType) {
+		super(mediaType == null ? "Request rejected: " + reason
+				: "Request rejected: " + reason + " for " + mediaType);
+		this.reason = reason;
+		this.mediaType = mediaType;
+	}
+
+	/**
+	 * @return Why the request was rejected
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return The MediaType without capacity, or null
+	 */
+	public MediaType getMediaType() {
+		return mediaType;
+	}
+}
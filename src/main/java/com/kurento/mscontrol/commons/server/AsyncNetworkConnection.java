@@ -0,0 +1,157 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.Joinable;
+import com.kurento.mscontrol.commons.Joinable.JoinContinuation;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.NetworkConnection;
+import com.kurento.mscontrol.commons.NetworkConnection.Continuation;
+
+/**
+ * Adapts the Continuation based operations of a {@link NetworkConnection} to
+ * {@link MediaFuture}s, so that a call setup can be chained without nesting
+ * callbacks or blocking a thread:
+ * 
+ * <pre>
+ * caller.generateOffer().then(new Step&lt;SessionSpec, SessionSpec&gt;() {
+ * 	public MediaFuture&lt;SessionSpec&gt; apply(SessionSpec offer) {
+ * 		return sendInvite(offer);
+ * 	}
+ * }).then(new Step&lt;SessionSpec, SessionSpec&gt;() {
+ * 	public MediaFuture&lt;SessionSpec&gt; apply(SessionSpec answer) {
+ * 		return caller.processAnswer(answer);
+ * 	}
+ * });
+ * </pre>
+ */
+public final class AsyncNetworkConnection {
+
+	private final NetworkConnection connection;
+
+	/**
+	 * Creates an adapter
+	 * 
+	 * @param connection
+	 *            The adapted NetworkConnection
+	 */
+	public AsyncNetworkConnection(NetworkConnection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * @return The adapted NetworkConnection
+	 */
+	public NetworkConnection getNetworkConnection() {
+		return connection;
+	}
+
+	/**
+	 * @see NetworkConnection#generateSessionSpecOffer(Continuation)
+	 * @return The generated offer
+	 */
+	public MediaFuture<SessionSpec> generateOffer() {
+		MediaFuture<SessionSpec> future = new MediaFuture<SessionSpec>();
+		connection.generateSessionSpecOffer(complete(future));
+		return future;
+	}
+
+	/**
+	 * @see NetworkConnection#processSessionSpecOffer(SessionSpec, Continuation)
+	 * @return The generated answer
+	 */
+	public MediaFuture<SessionSpec> processOffer(SessionSpec offer) {
+		MediaFuture<SessionSpec> future = new MediaFuture<SessionSpec>();
+		connection.processSessionSpecOffer(offer, complete(future));
+		return future;
+	}
+
+	/**
+	 * @see NetworkConnection#processSessionSpecAnswer(SessionSpec,
+	 *      Continuation)
+	 * @return The local SessionSpec
+	 */
+	public MediaFuture<SessionSpec> processAnswer(SessionSpec answer) {
+		MediaFuture<SessionSpec> future = new MediaFuture<SessionSpec>();
+		connection.processSessionSpecAnswer(answer, complete(future));
+		return future;
+	}
+
+	/**
+	 * @see NetworkConnection#confirm()
+	 * @return A future completed when the connection is confirmed
+	 */
+	public MediaFuture<Void> confirm() {
+		try {
+			connection.confirm();
+			return MediaFuture.completed(null);
+		} catch (MediaException e) {
+			return MediaFuture.failed(e);
+		}
+	}
+
+	/**
+	 * @see Joinable#joinAsync(Joinable, JoinContinuation)
+	 * @return A future completed when all the connections are established
+	 */
+	public MediaFuture<Void> join(Joinable other) {
+		MediaFuture<Void> future = new MediaFuture<Void>();
+		connection.joinAsync(other, complete(future, null));
+		return future;
+	}
+
+	/**
+	 * @see Joinable#unjoinAsync(Joinable, JoinContinuation)
+	 * @return A future completed when all the connections are removed
+	 */
+	public MediaFuture<Void> unjoin(Joinable other) {
+		MediaFuture<Void> future = new MediaFuture<Void>();
+		connection.unjoinAsync(other, complete(future, null));
+		return future;
+	}
+
+	private static Continuation complete(final MediaFuture<SessionSpec> future) {
+		return new Continuation() {
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				future.complete(spec);
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				future.completeWithError(cause);
+			}
+		};
+	}
+
+	private static <T> JoinContinuation complete(final MediaFuture<T> future,
+			final T value) {
+		return new JoinContinuation() {
+
+			@Override
+			public void onSucess() {
+				future.complete(value);
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				future.completeWithError(cause);
+			}
+		};
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import com.kurento.mscontrol.commons.CallbackDispatcher;
+import com.kurento.mscontrol.commons.NetworkConnection;
+import com.kurento.mscontrol.commons.SerialCallbackDispatcher;
+
+/**
+ * Dispatchers for the Continuations of a NetworkConnection, see
+ * {@link NetworkConnection#setCallbackDispatcher(CallbackDispatcher)}.
+ * <p>
+ * Dispatchers backed by a thread pool do not keep the order of the callbacks
+ * of a connection unless they are created with {@link #ordered(Executor)}.
+ * </p>
+ */
+public final class CallbackDispatchers {
+
+	private CallbackDispatchers() {
+	}
+
+	/**
+	 * Returns a dispatcher that runs callbacks on the thread that completes
+	 * the operation. It adds no overhead, but a slow callback delays the
+	 * implementation thread.
+	 * 
+	 * @return The direct dispatcher
+	 */
+	public static CallbackDispatcher direct() {
+		return CallbackDispatcher.DIRECT;
+	}
+
+	/**
+	 * Returns a dispatcher that runs callbacks on the given executor, for
+	 * example a thread pool
+	 * 
+	 * @param executor
+	 *            Executor that runs the callbacks
+	 * @return The dispatcher
+	 */
+	public static CallbackDispatcher executor(final Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("executor is null");
+		}
+		return new CallbackDispatcher() {
+
+			@Override
+			public void dispatch(Runnable callback) {
+				executor.execute(callback);
+			}
+		};
+	}
+
+	/**
+	 * Returns a dispatcher that starts a new thread for every callback, so a
+	 * callback can block without delaying any other.
+	 * 
+	 * @param factory
+	 *            Factory of the callback threads
+	 * @return The dispatcher
+	 */
+	public static CallbackDispatcher threadPerCallback(
+			final ThreadFactory factory) {
+		return new CallbackDispatcher() {
+
+			@Override
+			public void dispatch(Runnable callback) {
+				factory.newThread(callback).start();
+			}
+		};
+	}
+
+	/**
+	 * Returns a dispatcher that runs callbacks on the given executor, one at
+	 * a time and in the order they were dispatched. Give each
+	 * NetworkConnection its own ordered dispatcher to keep its callbacks
+	 * ordered while those of different connections run in parallel.
+	 * <p>
+	 * If the executor rejects a callback, the dispatcher is not left stuck,
+	 * see {@link SerialCallbackDispatcher}.
+	 * </p>
+	 * 
+	 * @param executor
+	 *            Executor that runs the callbacks
+	 * @return The dispatcher
+	 */
+	public static CallbackDispatcher ordered(Executor executor) {
+		return new SerialCallbackDispatcher(executor(executor));
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies, in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets, as in HdrHistogram: every power
+ * of two is split in {@value #SUB_BUCKETS} buckets, so that percentiles are
+ * reported with a relative error below 4%. Latencies of more than
+ * {@value #MAX_TRACKABLE} ns are counted in the last bucket, and in the mean,
+ * as if they were that long, although the maximum is kept exact.
+ * </p>
+ * <p>
+ * Recording a value is thread-safe, lock-free and does not allocate.
+ * Snapshots copy the counters without stopping the writers, so a snapshot
+ * taken while values are being recorded may miss the latest of them.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+
+	/**
+	 * Number of buckets in every power of two
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Highest latency with its own bucket, about 68 seconds
+	 */
+	public static final long MAX_TRACKABLE = (1L << 36) - 1;
+
+	private static final int BUCKETS = index(MAX_TRACKABLE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency
+	 * 
+	 * @param nanos
+	 *            Latency in nanoseconds, negative values are counted as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		long tracked = Math.min(nanos, MAX_TRACKABLE);
+		counts.incrementAndGet(index(tracked));
+		total.addAndGet(tracked);
+
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Clears all the recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Copies the current values
+	 * 
+	 * @return A snapshot of this histogram
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, total.get(), max.get());
+	}
+
+	static int index(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int mantissa = (int) (value >>> shift);
+		return (shift + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+	}
+
+	/**
+	 * Returns the highest value counted in the given bucket
+	 */
+	static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * Values of a {@link LatencyHistogram} at a point in time
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long total;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long total, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+
+		/**
+		 * @return The number of latencies recorded
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The highest latency recorded, in nanoseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @return The mean latency, in nanoseconds, or 0 if there is no value
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) total / count;
+		}
+
+		/**
+		 * Returns the latency below or at which the given percentage of the
+		 * values fall
+		 * 
+		 * @param percentile
+		 *            A percentage between 0 and 100
+		 * @return The latency in nanoseconds, or 0 if there is no value
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException(
+						"percentile must be between 0 and 100");
+			}
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return i == counts.length - 1 ? max : Math.min(
+							highestValue(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * @return The median latency, in nanoseconds, or 0 if there is no
+		 *         value
+		 */
+		public long get50thPercentile() {
+			return getValueAtPercentile(50);
+		}
+
+		/**
+		 * @return The latency below or at which 99% of the values fall, in
+		 *         nanoseconds, or 0 if there is no value
+		 */
+		public long get99thPercentile() {
+			return getValueAtPercentile(99);
+		}
+
+		/**
+		 * @return The latency below or at which 99.9% of the values fall, in
+		 *         nanoseconds, or 0 if there is no value
+		 */
+		public long get999thPercentile() {
+			return getValueAtPercentile(99.9);
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + ", p50=" + get50thPercentile()
+					+ ", p99=" + get99thPercentile() + ", p999="
+					+ get999thPercentile() + ", max=" + max;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import com.kurento.mscontrol.commons.LatencyRecorder;
+import com.kurento.mscontrol.commons.LatencyRecorder.Operation;
+import com.kurento.mscontrol.commons.LatencyRecorder.Outcome;
+
+/**
+ * {@link LatencyRecorder} keeping a {@link LatencyHistogram} for every
+ * operation and outcome, timed with {@link System#nanoTime()}.
+ * <p>
+ * Exporters scrape it by taking snapshots, for instance:
+ * </p>
+ * 
+ * <pre>
+ * for (Operation op : Operation.values()) {
+ * 	LatencyHistogram.Snapshot s = metrics.getSnapshot(op, Outcome.SUCCESS);
+ * 	export(op, s.get50thPercentile(), s.get99thPercentile(),
+ * 			s.get999thPercentile());
+ * }
+ * </pre>
+ */
+public class LatencyMetrics implements LatencyRecorder {
+
+	private static final int OUTCOMES = Outcome.values().length;
+
+	private final LatencyHistogram[] histograms;
+
+	/**
+	 * Creates the metrics with an empty histogram for every operation and
+	 * outcome
+	 */
+	public LatencyMetrics() {
+		histograms = new LatencyHistogram[Operation.values().length
+				* OUTCOMES];
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	@Override
+	public long currentTime() {
+		return System.nanoTime();
+	}
+
+	@Override
+	public void record(Operation operation, Outcome outcome, long nanos) {
+		getHistogram(operation, outcome).record(nanos);
+	}
+
+	/**
+	 * Returns the histogram of an operation and outcome
+	 * 
+	 * @param operation
+	 *            The operation
+	 * @param outcome
+	 *            The outcome
+	 * @return The histogram, which keeps being updated
+	 */
+	public LatencyHistogram getHistogram(Operation operation, Outcome outcome) {
+		return histograms[operation.ordinal() * OUTCOMES + outcome.ordinal()];
+	}
+
+	/**
+	 * Returns the current values of the histogram of an operation and
+	 * outcome
+	 * 
+	 * @param operation
+	 *            The operation
+	 * @param outcome
+	 *            The outcome
+	 * @return A snapshot of the histogram
+	 */
+	public LatencyHistogram.Snapshot getSnapshot(Operation operation,
+			Outcome outcome) {
+		return getHistogram(operation, outcome).snapshot();
+	}
+
+	/**
+	 * Clears all the histograms
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+	}
+}
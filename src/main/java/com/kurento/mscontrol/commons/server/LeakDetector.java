@@ -0,0 +1,285 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects NetworkConnections and MediaStreams collected without having been
+ * released, which would keep their media server resources until it
+ * restarts.
+ * <p>
+ * Implementations call {@link #track(Object)} when an object takes
+ * resources and {@link Tracker#released()} when it frees them. A sample of
+ * the tracked objects is watched through weak references, together with the
+ * stack trace of their allocation; when one of them is collected before
+ * being released, the {@link Listener} is notified. Every tracked object is
+ * also counted by type, so a live count that keeps growing reveals leaks
+ * outside the sample.
+ * </p>
+ * <p>
+ * The default detector is configured with the system property
+ * <code>kurento.mscontrol.leakDetection</code>: <code>disabled</code> (the
+ * default, which costs a field read per object), <code>sampled</code> (one
+ * object out of 128) or <code>paranoid</code> (every object).
+ * </p>
+ */
+public final class LeakDetector {
+
+	/**
+	 * How many objects are watched
+	 */
+	public enum Level {
+		/**
+		 * No object is tracked
+		 */
+		DISABLED,
+		/**
+		 * Objects are counted and a sample of them is watched
+		 */
+		SAMPLED,
+		/**
+		 * Every object is counted and watched
+		 */
+		PARANOID
+	}
+
+	/**
+	 * Handle of a tracked object
+	 */
+	public interface Tracker {
+
+		/**
+		 * Tells the detector that the object has released its resources.
+		 * Calling it again has no effect.
+		 */
+		public void released();
+	}
+
+	/**
+	 * Notified of leaked objects
+	 */
+	public interface Listener {
+
+		/**
+		 * This method is called when an object is collected without having
+		 * been released
+		 * 
+		 * @param type
+		 *            Class name of the object
+		 * @param allocation
+		 *            Stack trace of the call to {@link LeakDetector#track}
+		 */
+		public void onLeak(String type, Throwable allocation);
+	}
+
+	/**
+	 * Objects tracked between two samples in the sampled level
+	 */
+	public static final int SAMPLING_INTERVAL = 128;
+
+	private static final String PROPERTY = "kurento.mscontrol.leakDetection";
+
+	private static final LeakDetector DEFAULT = new LeakDetector(
+			parseLevel(System.getProperty(PROPERTY)));
+
+	private static final Tracker NOOP = new Tracker() {
+
+		@Override
+		public void released() {
+		}
+	};
+
+	private final Level level;
+	private final ConcurrentMap<Class<?>, AtomicInteger> live = new ConcurrentHashMap<Class<?>, AtomicInteger>();
+	private final Set<Watched> watched = Collections
+			.newSetFromMap(new ConcurrentHashMap<Watched, Boolean>());
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	private final AtomicLong leaks = new AtomicLong();
+
+	private volatile Listener listener;
+
+	/**
+	 * Racy on purpose, it only spreads the samples
+	 */
+	private int counter;
+
+	/**
+	 * Creates a detector
+	 * 
+	 * @param level
+	 *            How many objects are watched
+	 */
+	public LeakDetector(Level level) {
+		this.level = level;
+	}
+
+	/**
+	 * @return The detector configured by system property
+	 */
+	public static LeakDetector getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @return How many objects are watched
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Sets the listener notified of leaks
+	 * 
+	 * @param listener
+	 *            The listener, or null to only count them
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts tracking an object
+	 * 
+	 * @param resource
+	 *            The object that has taken resources
+	 * @return The handle to call when it releases them
+	 */
+	public Tracker track(Object resource) {
+		if (level == Level.DISABLED) {
+			return NOOP;
+		}
+
+		checkLeaks();
+		AtomicInteger count = live.get(resource.getClass());
+		if (count == null) {
+			AtomicInteger created = new AtomicInteger();
+			count = live.putIfAbsent(resource.getClass(), created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+
+		if (level == Level.SAMPLED && ++counter % SAMPLING_INTERVAL != 0) {
+			return new Counted(count);
+		}
+		Watched tracker = new Watched(resource, count, collected);
+		watched.add(tracker);
+		return tracker;
+	}
+
+	/**
+	 * Reports the watched objects collected since the last check. It is
+	 * called on every {@link #track(Object)}, too.
+	 */
+	public void checkLeaks() {
+		Watched leaked;
+		while ((leaked = (Watched) collected.poll()) != null) {
+			if (!watched.remove(leaked)) {
+				continue;
+			}
+			leaked.count.decrementAndGet();
+			leaks.incrementAndGet();
+
+			Listener current = listener;
+			if (current != null) {
+				current.onLeak(leaked.type, leaked.allocation);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of leaks detected
+	 */
+	public long getLeakCount() {
+		return leaks.get();
+	}
+
+	/**
+	 * @return The number of tracked objects not released yet, by class name
+	 */
+	public Map<String, Integer> getLiveCounts() {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Map.Entry<Class<?>, AtomicInteger> entry : live.entrySet()) {
+			counts.put(entry.getKey().getName(), entry.getValue().get());
+		}
+		return counts;
+	}
+
+	static Level parseLevel(String value) {
+		if (value == null) {
+			return Level.DISABLED;
+		}
+		try {
+			return Level.valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException e) {
+			return Level.DISABLED;
+		}
+	}
+
+	private static final class Counted implements Tracker {
+
+		private final AtomicInteger count;
+		private boolean released;
+
+		Counted(AtomicInteger count) {
+			this.count = count;
+		}
+
+		@Override
+		public synchronized void released() {
+			if (!released) {
+				released = true;
+				count.decrementAndGet();
+			}
+		}
+	}
+
+	private final class Watched extends WeakReference<Object> implements
+			Tracker {
+
+		final String type;
+		final AtomicInteger count;
+		final Throwable allocation;
+
+		Watched(Object resource, AtomicInteger count,
+				ReferenceQueue<Object> queue) {
+			super(resource, queue);
+			this.type = resource.getClass().getName();
+			this.count = count;
+			this.allocation = new Throwable("Allocation of " + type);
+		}
+
+		@Override
+		public void released() {
+			if (watched.remove(this)) {
+				count.decrementAndGet();
+				clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.kurento.mscontrol.commons.MediaException;
+
+/**
+ * Result of an asynchronous media operation.
+ * <p>
+ * A MediaFuture completes once, with a value or with an error. Callbacks are
+ * notified on the thread that completes it or, if it had already completed,
+ * on the thread that adds them. Operations are chained with
+ * {@link #then(Step)} without blocking any thread, and errors skip the
+ * remaining steps.
+ * </p>
+ * <p>
+ * Blocking methods throw the MediaException the operation failed with; other
+ * errors are wrapped in a MediaException.
+ * </p>
+ * 
+ * @param <T>
+ *            Type of the value
+ */
+public class MediaFuture<T> {
+
+	/**
+	 * Notified when a MediaFuture completes
+	 */
+	public interface Callback<T> {
+
+		/**
+		 * This method is called when the operation success
+		 * 
+		 * @param value
+		 *            The result of the operation
+		 */
+		public void onSucess(T value);
+
+		/**
+		 * This method gets called when the operation fails
+		 * 
+		 * @param cause
+		 *            The cause of the failure
+		 */
+		public void onError(Throwable cause);
+	}
+
+	/**
+	 * Next operation of a chain
+	 */
+	public interface Step<T, R> {
+
+		/**
+		 * Starts the next operation
+		 * 
+		 * @param value
+		 *            The result of the previous operation
+		 * @return The result of the next operation
+		 * @throws MediaException
+		 *             If the next operation could not be started
+		 */
+		public MediaFuture<R> apply(T value) throws MediaException;
+	}
+
+	private boolean done;
+	private T value;
+	private Throwable error;
+	private List<Callback<? super T>> callbacks;
+
+	/**
+	 * Creates a MediaFuture to be completed by the caller
+	 */
+	public MediaFuture() {
+	}
+
+	/**
+	 * @return A MediaFuture already completed with value
+	 */
+	public static <T> MediaFuture<T> completed(T value) {
+		MediaFuture<T> future = new MediaFuture<T>();
+		future.complete(value);
+		return future;
+	}
+
+	/**
+	 * @return A MediaFuture already failed with cause
+	 */
+	public static <T> MediaFuture<T> failed(Throwable cause) {
+		MediaFuture<T> future = new MediaFuture<T>();
+		future.completeWithError(cause);
+		return future;
+	}
+
+	/**
+	 * Waits for all the given futures
+	 * 
+	 * @param futures
+	 *            The futures to wait for
+	 * @return A MediaFuture with their values, in the same order, or the
+	 *         first error of any of them
+	 */
+	public static <T> MediaFuture<List<T>> all(
+			Collection<? extends MediaFuture<? extends T>> futures) {
+		final MediaFuture<List<T>> result = new MediaFuture<List<T>>();
+		final Object[] values = new Object[futures.size()];
+		final int[] pending = { values.length };
+
+		if (values.length == 0) {
+			result.complete(new ArrayList<T>());
+			return result;
+		}
+
+		int i = 0;
+		for (MediaFuture<? extends T> future : futures) {
+			final int index = i++;
+			future.addCallback(new Callback<T>() {
+
+				@Override
+				public void onSucess(T value) {
+					boolean last;
+					synchronized (values) {
+						values[index] = value;
+						last = --pending[0] == 0;
+					}
+					if (last) {
+						result.complete(MediaFuture.<T> toList(values));
+					}
+				}
+
+				@Override
+				public void onError(Throwable cause) {
+					result.completeWithError(cause);
+				}
+			});
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> toList(Object[] values) {
+		synchronized (values) {
+			return new ArrayList<T>((List<T>) Arrays.asList(values));
+		}
+	}
+
+	/**
+	 * Completes this future with a value
+	 * 
+	 * @return true if this call completed the future
+	 */
+	public boolean complete(T value) {
+		return finish(value, null);
+	}
+
+	/**
+	 * Completes this future with an error
+	 * 
+	 * @return true if this call completed the future
+	 */
+	public boolean completeWithError(Throwable cause) {
+		if (cause == null) {
+			throw new NullPointerException("Error cause is null");
+		}
+		return finish(null, cause);
+	}
+
+	/**
+	 * @return true if this future has completed
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Adds a callback, notified once when this future completes
+	 * 
+	 * @param callback
+	 *            The callback
+	 */
+	public void addCallback(Callback<? super T> callback) {
+		synchronized (this) {
+			if (!done) {
+				if (callbacks == null) {
+					callbacks = new ArrayList<Callback<? super T>>(2);
+				}
+				callbacks.add(callback);
+				return;
+			}
+		}
+		invokeCallback(callback);
+	}
+
+	/**
+	 * Chains the next operation, started when this one succeeds
+	 * 
+	 * @param step
+	 *            The next operation
+	 * @return The result of the next operation, or the error of any of them
+	 */
+	public <R> MediaFuture<R> then(final Step<? super T, R> step) {
+		final MediaFuture<R> result = new MediaFuture<R>();
+
+		addCallback(new Callback<T>() {
+
+			@Override
+			public void onSucess(T value) {
+				MediaFuture<R> next;
+				try {
+					next = step.apply(value);
+				} catch (MediaException e) {
+					result.completeWithError(e);
+					return;
+				} catch (RuntimeException e) {
+					result.completeWithError(e);
+					return;
+				}
+
+				if (next == null) {
+					result.complete(null);
+				} else {
+					next.addCallback(new Callback<R>() {
+
+						@Override
+						public void onSucess(R value) {
+							result.complete(value);
+						}
+
+						@Override
+						public void onError(Throwable cause) {
+							result.completeWithError(cause);
+						}
+					});
+				}
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				result.completeWithError(cause);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Waits for this future to complete
+	 * 
+	 * @return The value
+	 * @throws MediaException
+	 *             If the operation failed
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting
+	 */
+	public synchronized T get() throws MediaException, InterruptedException {
+		while (!done) {
+			wait();
+		}
+		return getResult();
+	}
+
+	/**
+	 * Waits for this future to complete, at most the given time
+	 * 
+	 * @return The value
+	 * @throws MediaException
+	 *             If the operation failed
+	 * @throws InterruptedException
+	 *             If the thread was interrupted while waiting
+	 * @throws TimeoutException
+	 *             If the future did not complete in time
+	 */
+	public synchronized T get(long timeout, TimeUnit unit)
+			throws MediaException, InterruptedException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException("Media operation not completed");
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private T getResult() throws MediaException {
+		if (error == null) {
+			return value;
+		}
+		if (error instanceof MediaException) {
+			throw (MediaException) error;
+		}
+		throw new MediaException(String.valueOf(error.getMessage()), error);
+	}
+
+	private boolean finish(T value, Throwable error) {
+		List<Callback<? super T>> pending;
+
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			this.value = value;
+			this.error = error;
+			pending = callbacks;
+			callbacks = null;
+			notifyAll();
+		}
+
+		if (pending != null) {
+			for (Callback<? super T> callback : pending) {
+				invokeCallback(callback);
+			}
+		}
+		return true;
+	}
+
+	private void invokeCallback(Callback<? super T> callback) {
+		T value;
+		Throwable error;
+		synchronized (this) {
+			value = this.value;
+			error = this.error;
+		}
+
+		if (error != null) {
+			callback.onError(error);
+		} else {
+			callback.onSucess(value);
+		}
+	}
+}
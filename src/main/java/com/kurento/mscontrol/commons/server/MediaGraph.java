@@ -0,0 +1,130 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import com.kurento.mscontrol.commons.Joinable;
+import com.kurento.mscontrol.commons.MediaSink;
+import com.kurento.mscontrol.commons.MediaSrc;
+
+/**
+ * Versioned, immutable view of the links between all the {@link Joinable}
+ * streams.
+ * <p>
+ * Tracking is disabled by default. Once enabled, MediaGraph is added as a
+ * {@link Joinable.LinkListener}, so every link recorded by a Joinable (see
+ * {@link Joinable#getConnectedSinks(MediaSrc)}) also updates a persistent
+ * structure shared by all the snapshots, so {@link #snapshot()} takes
+ * constant time and never blocks. Each update publishes the link that the
+ * Joinable holds when the update is applied, after the Joinables are
+ * unlocked, so notifications arriving out of order never leave a stale link.
+ * Links made while tracking was disabled are not part of any snapshot, so it
+ * should be enabled before any join.
+ * </p>
+ */
+public final class MediaGraph {
+
+	private static final Joinable.LinkListener LISTENER = new Joinable.LinkListener() {
+
+		@Override
+		public void linked(MediaSrc src, MediaSink sink) {
+			update(sink);
+		}
+
+		@Override
+		public void unlinked(MediaSrc src, MediaSink sink) {
+			update(sink);
+		}
+	};
+
+	/**
+	 * Serializes the updates, snapshots are read without it
+	 */
+	private static final Object LOCK = new Object();
+
+	private static boolean tracking;
+
+	private static volatile MediaGraphSnapshot current = new MediaGraphSnapshot(
+			PersistentIdentityMap.<MediaSink, MediaSrc> empty(), 0);
+
+	private MediaGraph() {
+	}
+
+	/**
+	 * Enables or disables link tracking. Disabling it discards all the
+	 * tracked links. Other link listeners added to Joinable are not affected.
+	 * 
+	 * @param enabled
+	 *            true to track links
+	 */
+	public static void setTracking(boolean enabled) {
+		synchronized (LOCK) {
+			if (enabled == tracking) {
+				return;
+			}
+			tracking = enabled;
+			if (enabled) {
+				Joinable.addLinkListener(LISTENER);
+				return;
+			}
+
+			Joinable.removeLinkListener(LISTENER);
+			// Updates still in flight find tracking disabled
+			current = new MediaGraphSnapshot(
+					PersistentIdentityMap.<MediaSink, MediaSrc> empty(),
+					current.getVersion() + 1);
+		}
+	}
+
+	/**
+	 * Returns true if link tracking is enabled
+	 * 
+	 * @return true if link tracking is enabled
+	 */
+	public static boolean isTracking() {
+		synchronized (LOCK) {
+			return tracking;
+		}
+	}
+
+	/**
+	 * Returns the last version of the media graph
+	 * 
+	 * @return An immutable snapshot of the tracked links
+	 */
+	public static MediaGraphSnapshot snapshot() {
+		return current;
+	}
+
+	private static void update(MediaSink sink) {
+		Joinable to = sink.getJoinable();
+
+		synchronized (LOCK) {
+			if (!tracking) {
+				return;
+			}
+
+			MediaSrc src = to == null ? null : to.getConnectedSrc(sink);
+			MediaGraphSnapshot snapshot = current;
+			PersistentIdentityMap<MediaSink, MediaSrc> links = snapshot
+					.getLinks();
+			if (links.get(sink) == src) {
+				return;
+			}
+			links = src == null ? links.remove(sink) : links.put(sink, src);
+			current = new MediaGraphSnapshot(links, snapshot.getVersion() + 1);
+		}
+	}
+}
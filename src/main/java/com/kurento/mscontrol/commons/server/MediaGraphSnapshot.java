@@ -0,0 +1,325 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.kurento.mscontrol.commons.Joinable;
+import com.kurento.mscontrol.commons.MediaSink;
+import com.kurento.mscontrol.commons.MediaSrc;
+
+/**
+ * Immutable state of the {@link MediaGraph} at a given version.
+ * <p>
+ * Taking a snapshot is free. The indexes needed by the traversal and export
+ * methods are built the first time one of them is called, and only on the
+ * snapshot being queried.
+ * </p>
+ */
+public final class MediaGraphSnapshot {
+
+	private final PersistentIdentityMap<MediaSink, MediaSrc> links;
+	private final long version;
+
+	private Map<MediaSrc, List<MediaSink>> sinksBySrc;
+	private Map<Joinable, Set<Joinable>> downstream;
+
+	MediaGraphSnapshot(PersistentIdentityMap<MediaSink, MediaSrc> links,
+			long version) {
+		this.links = links;
+		this.version = version;
+	}
+
+	PersistentIdentityMap<MediaSink, MediaSrc> getLinks() {
+		return links;
+	}
+
+	/**
+	 * Returns the version of this snapshot, increased by every change of the
+	 * graph
+	 * 
+	 * @return The version of this snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of links between a MediaSrc and a MediaSink
+	 * 
+	 * @return The number of links
+	 */
+	public int getLinkCount() {
+		return links.size();
+	}
+
+	/**
+	 * Returns the MediaSrc linked to <code>sink</code>
+	 * 
+	 * @param sink
+	 *            A MediaSink
+	 * @return The MediaSrc feeding <code>sink</code> or null if none
+	 */
+	public MediaSrc getConnectedSrc(MediaSink sink) {
+		return links.get(sink);
+	}
+
+	/**
+	 * Returns the MediaSrcs with at least one link
+	 * 
+	 * @return The linked MediaSrcs
+	 */
+	public Collection<MediaSrc> getSrcs() {
+		return Collections.unmodifiableSet(getSinksBySrc().keySet());
+	}
+
+	/**
+	 * Returns the MediaSinks fed by <code>src</code>
+	 * 
+	 * @param src
+	 *            A MediaSrc
+	 * @return The linked MediaSinks, empty if none
+	 */
+	public Collection<MediaSink> getConnectedSinks(MediaSrc src) {
+		List<MediaSink> sinks = getSinksBySrc().get(src);
+		if (sinks == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(sinks);
+	}
+
+	/**
+	 * Returns the number of MediaSinks fed by <code>src</code>
+	 * 
+	 * @param src
+	 *            A MediaSrc
+	 * @return The fan-out of <code>src</code>
+	 */
+	public int getFanOut(MediaSrc src) {
+		List<MediaSink> sinks = getSinksBySrc().get(src);
+		return sinks == null ? 0 : sinks.size();
+	}
+
+	/**
+	 * Returns the Joinables with at least one linked stream
+	 * 
+	 * @return The linked Joinables
+	 */
+	public Collection<Joinable> getJoinables() {
+		return Collections.unmodifiableSet(getDownstream().keySet());
+	}
+
+	/**
+	 * Returns the Joinables that receive media from <code>from</code>,
+	 * directly or through other Joinables
+	 * 
+	 * @param from
+	 *            The Joinable originating the media
+	 * @return The reachable Joinables, not including <code>from</code> unless
+	 *         there is a loop
+	 */
+	public Collection<Joinable> getReachable(Joinable from) {
+		Map<Joinable, Set<Joinable>> graph = getDownstream();
+		Set<Joinable> visited = new LinkedHashSet<Joinable>();
+		LinkedList<Joinable> queue = new LinkedList<Joinable>();
+
+		queue.add(from);
+		while (!queue.isEmpty()) {
+			Set<Joinable> next = graph.get(queue.removeFirst());
+			if (next == null) {
+				continue;
+			}
+			for (Joinable joinable : next) {
+				if (visited.add(joinable)) {
+					queue.add(joinable);
+				}
+			}
+		}
+
+		return visited;
+	}
+
+	/**
+	 * Returns true if media sent by <code>from</code> reaches <code>to</code>
+	 * 
+	 * @param from
+	 *            The Joinable originating the media
+	 * @param to
+	 *            The Joinable receiving the media
+	 * @return true if there is a path of links from <code>from</code> to
+	 *         <code>to</code>
+	 */
+	public boolean isReachable(Joinable from, Joinable to) {
+		return getReachable(from).contains(to);
+	}
+
+	/**
+	 * Exports the graph in Graphviz DOT format, with one node per Joinable and
+	 * one edge per link labelled with its MediaType
+	 * 
+	 * @return The DOT representation of the graph
+	 */
+	public String toDot() {
+		Map<Joinable, Integer> ids = getIds();
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("digraph media {\n");
+		for (Map.Entry<Joinable, Integer> node : ids.entrySet()) {
+			sb.append("  j").append(node.getValue()).append(" [label=\"")
+					.append(escape(String.valueOf(node.getKey())))
+					.append("\"];\n");
+		}
+		for (Map.Entry<MediaSrc, List<MediaSink>> entry : getSinksBySrc()
+				.entrySet()) {
+			MediaSrc src = entry.getKey();
+			for (MediaSink sink : entry.getValue()) {
+				sb.append("  j").append(ids.get(src.getJoinable()))
+						.append(" -> j").append(ids.get(sink.getJoinable()))
+						.append(" [label=\"")
+						.append(escape(String.valueOf(src.getMediaType())))
+						.append("\"];\n");
+			}
+		}
+		sb.append("}\n");
+
+		return sb.toString();
+	}
+
+	/**
+	 * Exports the graph in JSON format:
+	 * 
+	 * <pre>
+	 * {"version":3,
+	 *  "joinables":[{"id":0,"name":"..."},...],
+	 *  "links":[{"from":0,"to":1,"type":"AUDIO"},...]}
+	 * </pre>
+	 * 
+	 * @return The JSON representation of the graph
+	 */
+	public String toJson() {
+		Map<Joinable, Integer> ids = getIds();
+		StringBuilder sb = new StringBuilder();
+		boolean first = true;
+
+		sb.append("{\"version\":").append(version).append(",\"joinables\":[");
+		for (Map.Entry<Joinable, Integer> node : ids.entrySet()) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append("{\"id\":").append(node.getValue())
+					.append(",\"name\":\"")
+					.append(escape(String.valueOf(node.getKey())))
+					.append("\"}");
+		}
+
+		sb.append("],\"links\":[");
+		first = true;
+		for (Map.Entry<MediaSrc, List<MediaSink>> entry : getSinksBySrc()
+				.entrySet()) {
+			MediaSrc src = entry.getKey();
+			for (MediaSink sink : entry.getValue()) {
+				if (!first) {
+					sb.append(',');
+				}
+				first = false;
+				sb.append("{\"from\":").append(ids.get(src.getJoinable()))
+						.append(",\"to\":").append(ids.get(sink.getJoinable()))
+						.append(",\"type\":\"")
+						.append(escape(String.valueOf(src.getMediaType())))
+						.append("\"}");
+			}
+		}
+		sb.append("]}");
+
+		return sb.toString();
+	}
+
+	private Map<Joinable, Integer> getIds() {
+		Map<Joinable, Integer> ids = new LinkedHashMap<Joinable, Integer>();
+		for (Joinable joinable : getDownstream().keySet()) {
+			ids.put(joinable, ids.size());
+		}
+		return ids;
+	}
+
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(' ');
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private synchronized Map<MediaSrc, List<MediaSink>> getSinksBySrc() {
+		if (sinksBySrc == null) {
+			List<MediaSink> sinks = new ArrayList<MediaSink>(links.size());
+			List<MediaSrc> srcs = new ArrayList<MediaSrc>(links.size());
+			links.collect(sinks, srcs);
+
+			Map<MediaSrc, List<MediaSink>> index = new LinkedHashMap<MediaSrc, List<MediaSink>>();
+			for (int i = 0; i < sinks.size(); i++) {
+				List<MediaSink> fed = index.get(srcs.get(i));
+				if (fed == null) {
+					fed = new ArrayList<MediaSink>();
+					index.put(srcs.get(i), fed);
+				}
+				fed.add(sinks.get(i));
+			}
+			sinksBySrc = index;
+		}
+		return sinksBySrc;
+	}
+
+	private synchronized Map<Joinable, Set<Joinable>> getDownstream() {
+		if (downstream == null) {
+			Map<Joinable, Set<Joinable>> graph = new LinkedHashMap<Joinable, Set<Joinable>>();
+			for (Map.Entry<MediaSrc, List<MediaSink>> entry : getSinksBySrc()
+					.entrySet()) {
+				Joinable from = entry.getKey().getJoinable();
+				Set<Joinable> next = graph.get(from);
+				if (next == null) {
+					next = new LinkedHashSet<Joinable>();
+					graph.put(from, next);
+				}
+				for (MediaSink sink : entry.getValue()) {
+					Joinable to = sink.getJoinable();
+					next.add(to);
+					if (!graph.containsKey(to)) {
+						graph.put(to, new LinkedHashSet<Joinable>());
+					}
+				}
+			}
+			downstream = graph;
+		}
+		return downstream;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.concurrent.ScheduledFuture;
+
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.NetworkConnection;
+import com.kurento.mscontrol.commons.NetworkConnection.Continuation;
+import com.kurento.mscontrol.commons.NetworkConnection.ProgressiveContinuation;
+
+/**
+ * Handle of a SessionSpec negotiation started through a
+ * {@link NegotiationTimer}.
+ * <p>
+ * The Continuation given when the negotiation was started is notified exactly
+ * once: with the result of the NetworkConnection, or with a MediaException if
+ * the negotiation is cancelled or its deadline expires first. In the last two
+ * cases the NetworkConnection is released, since its negotiation state is
+ * unknown, and any later result is ignored. All notifications run on the
+ * callback dispatcher of the NetworkConnection. Partial results for a
+ * {@link NetworkConnection.ProgressiveContinuation} are forwarded while the
+ * negotiation is pending, in order and before the final result.
+ * </p>
+ */
+public final class Negotiation {
+
+	private final NegotiationTimer timer;
+	private final NetworkConnection connection;
+	private final Continuation cont;
+
+	private boolean done;
+	private boolean cancelled;
+	private ScheduledFuture<?> deadline;
+
+	Negotiation(NegotiationTimer timer, NetworkConnection connection,
+			Continuation cont) {
+		this.timer = timer;
+		this.connection = connection;
+		this.cont = cont;
+	}
+
+	/**
+	 * @return The NetworkConnection being negotiated
+	 */
+	public NetworkConnection getNetworkConnection() {
+		return connection;
+	}
+
+	/**
+	 * Cancels the negotiation, if it has not completed yet
+	 * 
+	 * @return true if the negotiation was cancelled by this call
+	 */
+	public boolean cancel() {
+		if (!finish(true)) {
+			return false;
+		}
+		connection.release();
+		connection.dispatchError(cont, new MediaException(
+				"Negotiation cancelled"));
+		return true;
+	}
+
+	/**
+	 * @return true if the Continuation has been or is being notified
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return true if the negotiation completed because of {@link #cancel()}
+	 */
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the Continuation to pass to the NetworkConnection. It is only
+	 * progressive if the caller's one is, so implementations do not generate
+	 * partial results nobody waits for.
+	 */
+	Continuation callback() {
+		if (cont instanceof ProgressiveContinuation) {
+			final ProgressiveContinuation progressive = (ProgressiveContinuation) cont;
+			return new ProgressiveContinuation() {
+
+				@Override
+				public void onMediaReady(SessionSpec partial, int index) {
+					// Partial results and the error of cancel() or expire()
+					// run one at a time on the connection's dispatcher, and
+					// done is set before that error is dispatched. A partial
+					// that sees done false is then delivered before it.
+					if (!isDone()) {
+						progressive.onMediaReady(partial, index);
+					}
+				}
+
+				@Override
+				public void onSucess(SessionSpec spec) {
+					succeeded(spec);
+				}
+
+				@Override
+				public void onError(Throwable cause) {
+					failed(cause);
+				}
+			};
+		}
+
+		return new Continuation() {
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				succeeded(spec);
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				failed(cause);
+			}
+		};
+	}
+
+	private void succeeded(SessionSpec spec) {
+		if (finish(false)) {
+			cont.onSucess(spec);
+		}
+	}
+
+	private void failed(Throwable cause) {
+		if (finish(false)) {
+			cont.onError(cause);
+		}
+	}
+
+	void setDeadline(ScheduledFuture<?> deadline) {
+		synchronized (this) {
+			if (!done) {
+				this.deadline = deadline;
+				return;
+			}
+		}
+		deadline.cancel(false);
+	}
+
+	void expire() {
+		if (!finish(false)) {
+			return;
+		}
+		timer.expired();
+		connection.release();
+		connection.dispatchError(cont, new MediaException(
+				"Negotiation timed out"));
+	}
+
+	private boolean finish(boolean cancel) {
+		ScheduledFuture<?> pending;
+
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			done = true;
+			cancelled = cancel;
+			pending = deadline;
+			deadline = null;
+		}
+
+		if (pending != null) {
+			pending.cancel(false);
+		}
+		timer.finished();
+		return true;
+	}
+}
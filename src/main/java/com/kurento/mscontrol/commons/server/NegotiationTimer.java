@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.NetworkConnection;
+import com.kurento.mscontrol.commons.NetworkConnection.Continuation;
+
+/**
+ * Starts SessionSpec negotiations with a deadline.
+ * <p>
+ * A NetworkConnection notifies its Continuation when the media server
+ * answers, which may never happen if the server stalls. The negotiations
+ * started here fail with a MediaException when their deadline expires, and
+ * return a {@link Negotiation} that the caller may cancel before. Either way
+ * the NetworkConnection is released, so stalled negotiations do not keep
+ * media server resources.
+ * </p>
+ * <p>
+ * Deadlines are scheduled on the given executor and cancelled as soon as the
+ * negotiation completes. This class is thread-safe.
+ * </p>
+ */
+public final class NegotiationTimer {
+
+	private final ScheduledExecutorService scheduler;
+
+	private int pending;
+	private long expired;
+
+	/**
+	 * Creates a timer
+	 * 
+	 * @param scheduler
+	 *            Executor running the deadlines, owned by the caller
+	 */
+	public NegotiationTimer(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Calls {@link NetworkConnection#generateSessionSpecOffer(Continuation)}
+	 * with a deadline
+	 * 
+	 * @param connection
+	 *            The NetworkConnection
+	 * @param timeout
+	 *            Time to wait for the offer
+	 * @param unit
+	 *            Unit of timeout
+	 * @param cont
+	 *            Continuation to notify when the operation completes or
+	 *            expires
+	 * @return The negotiation handle
+	 */
+	public Negotiation generateSessionSpecOffer(NetworkConnection connection,
+			long timeout, TimeUnit unit, Continuation cont) {
+		Negotiation negotiation = start(connection, timeout, unit, cont);
+		connection.generateSessionSpecOffer(negotiation.callback());
+		return negotiation;
+	}
+
+	/**
+	 * Calls
+	 * {@link NetworkConnection#processSessionSpecOffer(SessionSpec, Continuation)}
+	 * with a deadline
+	 * 
+	 * @param connection
+	 *            The NetworkConnection
+	 * @param offer
+	 *            SessionSpec offer from the remote User Agent
+	 * @param timeout
+	 *            Time to wait for the answer
+	 * @param unit
+	 *            Unit of timeout
+	 * @param cont
+	 *            Continuation to notify when the operation completes or
+	 *            expires
+	 * @return The negotiation handle
+	 */
+	public Negotiation processSessionSpecOffer(NetworkConnection connection,
+			SessionSpec offer, long timeout, TimeUnit unit, Continuation cont) {
+		Negotiation negotiation = start(connection, timeout, unit, cont);
+		connection.processSessionSpecOffer(offer, negotiation.callback());
+		return negotiation;
+	}
+
+	/**
+	 * Calls
+	 * {@link NetworkConnection#processSessionSpecAnswer(SessionSpec, Continuation)}
+	 * with a deadline
+	 * 
+	 * @param connection
+	 *            The NetworkConnection
+	 * @param answer
+	 *            SessionSpec answer from the remote User Agent
+	 * @param timeout
+	 *            Time to wait for the answer to be processed
+	 * @param unit
+	 *            Unit of timeout
+	 * @param cont
+	 *            Continuation to notify when the operation completes or
+	 *            expires
+	 * @return The negotiation handle
+	 */
+	public Negotiation processSessionSpecAnswer(NetworkConnection connection,
+			SessionSpec answer, long timeout, TimeUnit unit, Continuation cont) {
+		Negotiation negotiation = start(connection, timeout, unit, cont);
+		connection.processSessionSpecAnswer(answer, negotiation.callback());
+		return negotiation;
+	}
+
+	/**
+	 * @return The number of negotiations not completed yet
+	 */
+	public synchronized int getPendingCount() {
+		return pending;
+	}
+
+	/**
+	 * @return The number of negotiations whose deadline expired
+	 */
+	public synchronized long getExpired() {
+		return expired;
+	}
+
+	synchronized void finished() {
+		pending--;
+	}
+
+	synchronized void expired() {
+		expired++;
+	}
+
+	private Negotiation start(NetworkConnection connection, long timeout,
+			TimeUnit unit, Continuation cont) {
+		final Negotiation negotiation = new Negotiation(this, connection,
+				cont);
+		synchronized (this) {
+			pending++;
+		}
+		negotiation.setDeadline(scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				negotiation.expire();
+			}
+		}, timeout, unit));
+		return negotiation;
+	}
+}
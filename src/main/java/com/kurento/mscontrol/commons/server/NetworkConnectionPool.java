@@ -0,0 +1,444 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+/**
+ * Pool of {@link NetworkConnection}s with an offer already generated.
+ * <p>
+ * Generating an offer needs a round trip to the media server to allocate its
+ * ports, which delays outbound calls. The pool keeps a number of connections
+ * with their offer ready, so a call can send it without waiting, and refills
+ * itself in the background every time one is taken.
+ * </p>
+ * <p>
+ * Offers that stay unused longer than the configured idle time are released,
+ * since the media server may reclaim their ports. Expired entries are removed
+ * periodically and never handed out.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class NetworkConnectionPool {
+
+	/**
+	 * Creates the connections of a pool
+	 */
+	public interface Factory {
+
+		/**
+		 * Creates a new NetworkConnection, without any offer generated
+		 * 
+		 * @return The NetworkConnection
+		 * @throws MediaException
+		 *             If the connection could not be created
+		 */
+		public NetworkConnection create() throws MediaException;
+	}
+
+	/**
+	 * A NetworkConnection together with the offer it generated
+	 */
+	public static final class ReadyOffer {
+
+		private final NetworkConnection connection;
+		private final SessionSpec offer;
+		private final long readyAt;
+
+		private ReadyOffer(NetworkConnection connection, SessionSpec offer,
+				long readyAt) {
+			this.connection = connection;
+			this.offer = offer;
+			this.readyAt = readyAt;
+		}
+
+		/**
+		 * @return The NetworkConnection, waiting for an answer
+		 */
+		public NetworkConnection getNetworkConnection() {
+			return connection;
+		}
+
+		/**
+		 * @return The offer generated by the NetworkConnection
+		 */
+		public SessionSpec getSessionSpec() {
+			return offer;
+		}
+	}
+
+	/**
+	 * Used as a callback for {@link NetworkConnectionPool#acquire}
+	 */
+	public interface OfferContinuation {
+
+		/**
+		 * This method is called when the offer is ready
+		 * 
+		 * @param offer
+		 *            The connection and its offer
+		 */
+		public void onSucess(ReadyOffer offer);
+
+		/**
+		 * This method gets called when the operation fails
+		 * 
+		 * @param cause
+		 *            The cause of the failure
+		 */
+		public void onError(Throwable cause);
+	}
+
+	private final Factory factory;
+	private final int size;
+	private final long maxIdleNanos;
+	private final ScheduledExecutorService executor;
+
+	private final Deque<ReadyOffer> idle = new ArrayDeque<ReadyOffer>();
+	private int warming;
+	private boolean closed;
+	private ScheduledFuture<?> sweeper;
+
+	private long hits;
+	private long misses;
+	private long expired;
+	private long failures;
+
+	/**
+	 * Creates a pool, which starts empty until {@link #start()} is called
+	 * 
+	 * @param factory
+	 *            Factory of the pooled connections
+	 * @param size
+	 *            Number of offers to keep ready
+	 * @param maxIdle
+	 *            Time an offer may stay in the pool
+	 * @param unit
+	 *            Unit of maxIdle
+	 * @param executor
+	 *            Executor for refills and expiration, owned by the caller
+	 */
+	public NetworkConnectionPool(Factory factory, int size, long maxIdle,
+			TimeUnit unit, ScheduledExecutorService executor) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Negative pool size: " + size);
+		}
+		if (maxIdle <= 0) {
+			throw new IllegalArgumentException("Idle time must be positive");
+		}
+		this.factory = factory;
+		this.size = size;
+		this.maxIdleNanos = unit.toNanos(maxIdle);
+		this.executor = executor;
+	}
+
+	/**
+	 * Fills the pool and starts the periodic expiration of idle offers
+	 */
+	public void start() {
+		synchronized (this) {
+			if (closed || sweeper != null) {
+				return;
+			}
+			long period = Math.max(maxIdleNanos / 2, 1);
+			sweeper = executor.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					expire();
+				}
+			}, period, period, TimeUnit.NANOSECONDS);
+		}
+		refill();
+	}
+
+	/**
+	 * Stops refilling and releases all the idle connections. Offers being
+	 * generated are released as soon as they complete.
+	 */
+	public void close() {
+		List<ReadyOffer> released;
+
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (sweeper != null) {
+				sweeper.cancel(false);
+			}
+			released = new ArrayList<ReadyOffer>(idle);
+			idle.clear();
+		}
+
+		release(released);
+	}
+
+	/**
+	 * Takes a ready offer from the pool, without waiting
+	 * 
+	 * @return The oldest unexpired offer or null if the pool is empty
+	 */
+	public ReadyOffer poll() {
+		List<ReadyOffer> stale = new ArrayList<ReadyOffer>();
+		ReadyOffer offer;
+
+		synchronized (this) {
+			offer = takeFresh(System.nanoTime(), stale);
+			if (offer != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+		}
+
+		release(stale);
+		refill();
+		return offer;
+	}
+
+	/**
+	 * Takes a ready offer from the pool or, if it is empty, generates one on
+	 * a new connection
+	 * 
+	 * @param cont
+	 *            Continuation to notify, on the calling thread if there was a
+	 *            ready offer
+	 */
+	public void acquire(final OfferContinuation cont) {
+		ReadyOffer offer = poll();
+		if (offer != null) {
+			cont.onSucess(offer);
+			return;
+		}
+
+		final NetworkConnection connection;
+		try {
+			connection = factory.create();
+		} catch (MediaException e) {
+			cont.onError(e);
+			return;
+		}
+
+		connection.generateSessionSpecOffer(new NetworkConnection.Continuation() {
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				cont.onSucess(new ReadyOffer(connection, spec, System
+						.nanoTime()));
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				connection.release();
+				cont.onError(cause);
+			}
+		});
+	}
+
+	/**
+	 * @return The number of offers ready in the pool
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return The number of offers being generated
+	 */
+	public synchronized int getWarmingCount() {
+		return warming;
+	}
+
+	/**
+	 * @return The number of requests served with a ready offer
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of requests that found the pool empty
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of offers released because they stayed idle too long
+	 */
+	public synchronized long getExpired() {
+		return expired;
+	}
+
+	/**
+	 * @return The number of background offers that could not be generated
+	 */
+	public synchronized long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Releases the expired offers and refills the pool
+	 */
+	void expire() {
+		List<ReadyOffer> stale = new ArrayList<ReadyOffer>();
+
+		synchronized (this) {
+			long now = System.nanoTime();
+			while (!idle.isEmpty() && isExpired(idle.peekFirst(), now)) {
+				stale.add(idle.pollFirst());
+			}
+			expired += stale.size();
+		}
+
+		release(stale);
+		refill();
+	}
+
+	private ReadyOffer takeFresh(long now, List<ReadyOffer> stale) {
+		ReadyOffer offer;
+		while ((offer = idle.pollFirst()) != null) {
+			if (!isExpired(offer, now)) {
+				return offer;
+			}
+			stale.add(offer);
+			expired++;
+		}
+		return null;
+	}
+
+	private boolean isExpired(ReadyOffer offer, long now) {
+		return now - offer.readyAt >= maxIdleNanos;
+	}
+
+	private void refill() {
+		int needed;
+
+		synchronized (this) {
+			if (closed || sweeper == null) {
+				return;
+			}
+			needed = size - idle.size() - warming;
+			if (needed <= 0) {
+				return;
+			}
+			warming += needed;
+		}
+
+		for (int i = 0; i < needed; i++) {
+			try {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						warm();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// The remaining offers are retried on the next refill
+				synchronized (this) {
+					warming -= needed - i;
+				}
+				return;
+			}
+		}
+	}
+
+	private void warm() {
+		final NetworkConnection connection;
+		try {
+			connection = factory.create();
+		} catch (MediaException e) {
+			warmed(null);
+			return;
+		} catch (RuntimeException e) {
+			warmed(null);
+			return;
+		}
+
+		// Set once the offer is accounted for, by its Continuation or by a
+		// failure of generateSessionSpecOffer itself
+		final AtomicBoolean done = new AtomicBoolean();
+		NetworkConnection.Continuation cont = new NetworkConnection.Continuation() {
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				if (done.compareAndSet(false, true)) {
+					warmed(new ReadyOffer(connection, spec, System.nanoTime()));
+				}
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				if (done.compareAndSet(false, true)) {
+					connection.release();
+					warmed(null);
+				}
+			}
+		};
+		try {
+			connection.generateSessionSpecOffer(cont);
+		} catch (RuntimeException e) {
+			if (done.compareAndSet(false, true)) {
+				connection.release();
+				warmed(null);
+			}
+		}
+	}
+
+	/**
+	 * Adds an offer generated in the background, or counts a failure if null.
+	 * Failed offers are retried on the next refill.
+	 */
+	private void warmed(ReadyOffer offer) {
+		boolean accepted;
+
+		synchronized (this) {
+			warming--;
+			accepted = offer != null && !closed;
+			if (accepted) {
+				idle.addLast(offer);
+			} else if (offer == null) {
+				failures++;
+			}
+		}
+
+		if (offer != null && !accepted) {
+			offer.connection.release();
+		}
+	}
+
+	private static void release(List<ReadyOffer> offers) {
+		for (ReadyOffer offer : offers) {
+			offer.connection.release();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.MediaSink;
+import com.kurento.mscontrol.commons.MediaSrc;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+/**
+ * Keeps finished {@link NetworkConnection}s to reuse them in later calls.
+ * <p>
+ * Connections are grouped by their capabilities, the set of MediaTypes of
+ * their streams, so an audio-only call never gets an audio and video
+ * connection. A connection given back with {@link #recycle(NetworkConnection)}
+ * is reset with {@link NetworkConnection#recycle()}; connections that are not
+ * recyclable, fail to reset or do not fit in the pool are released instead.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class NetworkConnectionRecycler {
+
+	/**
+	 * Creates the connections handed out when there is none to reuse
+	 */
+	public interface Factory {
+
+		/**
+		 * Creates a new NetworkConnection
+		 * 
+		 * @param capabilities
+		 *            MediaTypes its streams must have
+		 * @return The NetworkConnection
+		 * @throws MediaException
+		 *             If the connection could not be created
+		 */
+		public NetworkConnection create(Set<MediaType> capabilities)
+				throws MediaException;
+	}
+
+	private final Factory factory;
+	private final int maxIdle;
+
+	private final Map<Set<MediaType>, Deque<NetworkConnection>> idle = new HashMap<Set<MediaType>, Deque<NetworkConnection>>();
+	private boolean closed;
+
+	private long created;
+	private long reused;
+	private long discarded;
+
+	/**
+	 * Creates a recycler
+	 * 
+	 * @param factory
+	 *            Factory of new connections
+	 * @param maxIdle
+	 *            Maximum number of idle connections kept per capabilities
+	 */
+	public NetworkConnectionRecycler(Factory factory, int maxIdle) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("Negative idle size: "
+					+ maxIdle);
+		}
+		this.factory = factory;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Returns an idle connection with the given capabilities or creates one
+	 * 
+	 * @param types
+	 *            MediaTypes its streams must have
+	 * @return A NetworkConnection ready to negotiate
+	 * @throws MediaException
+	 *             If a new connection could not be created
+	 */
+	public NetworkConnection obtain(MediaType... types) throws MediaException {
+		Set<MediaType> key = capabilities(types);
+
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Recycler has been closed");
+			}
+			Deque<NetworkConnection> connections = idle.get(key);
+			if (connections != null && !connections.isEmpty()) {
+				reused++;
+				return connections.pollLast();
+			}
+			created++;
+		}
+
+		return factory.create(key);
+	}
+
+	/**
+	 * Gives back a connection whose call has finished. It must not be used by
+	 * the caller afterwards.
+	 * 
+	 * @param connection
+	 *            The connection
+	 */
+	public void recycle(NetworkConnection connection) {
+		// Reset may drop the streams of the negotiated SessionSpecs
+		Set<MediaType> key = capabilities(connection);
+		boolean reset;
+		try {
+			reset = connection.recycle();
+		} catch (MediaException e) {
+			reset = false;
+		}
+		if (!reset) {
+			discard(connection);
+			return;
+		}
+
+		synchronized (this) {
+			if (!closed) {
+				Deque<NetworkConnection> connections = idle.get(key);
+				if (connections == null) {
+					connections = new ArrayDeque<NetworkConnection>();
+					idle.put(key, connections);
+				}
+				if (connections.size() < maxIdle) {
+					connections.addLast(connection);
+					return;
+				}
+			}
+		}
+
+		discard(connection);
+	}
+
+	/**
+	 * Releases all idle connections. Connections recycled afterwards are
+	 * released too.
+	 */
+	public void close() {
+		List<NetworkConnection> released = new ArrayList<NetworkConnection>();
+
+		synchronized (this) {
+			closed = true;
+			for (Deque<NetworkConnection> connections : idle.values()) {
+				released.addAll(connections);
+			}
+			idle.clear();
+		}
+
+		for (NetworkConnection connection : released) {
+			connection.release();
+		}
+	}
+
+	/**
+	 * @param types
+	 *            MediaTypes of the connections
+	 * @return The number of idle connections with those capabilities
+	 */
+	public synchronized int getIdleCount(MediaType... types) {
+		Deque<NetworkConnection> connections = idle.get(capabilities(types));
+		return connections == null ? 0 : connections.size();
+	}
+
+	/**
+	 * @return The number of connections obtained from the factory
+	 */
+	public synchronized long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return The number of connections handed out again
+	 */
+	public synchronized long getReused() {
+		return reused;
+	}
+
+	/**
+	 * @return The number of connections released instead of kept
+	 */
+	public synchronized long getDiscarded() {
+		return discarded;
+	}
+
+	private void discard(NetworkConnection connection) {
+		synchronized (this) {
+			discarded++;
+		}
+		connection.release();
+	}
+
+	private static Set<MediaType> capabilities(MediaType... types) {
+		Set<MediaType> key = new HashSet<MediaType>();
+		for (MediaType type : types) {
+			key.add(type);
+		}
+		return Collections.unmodifiableSet(key);
+	}
+
+	private static Set<MediaType> capabilities(NetworkConnection connection) {
+		Set<MediaType> key = new HashSet<MediaType>();
+		if (connection.getMediaSrcs() != null) {
+			for (MediaSrc src : connection.getMediaSrcs()) {
+				key.add(src.getMediaType());
+			}
+		}
+		if (connection.getMediaSinks() != null) {
+			for (MediaSink sink : connection.getMediaSinks()) {
+				key.add(sink.getMediaType());
+			}
+		}
+		return Collections.unmodifiableSet(key);
+	}
+}
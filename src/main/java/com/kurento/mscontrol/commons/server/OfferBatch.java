@@ -0,0 +1,273 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+/**
+ * Results of generating the offers of many NetworkConnections at once, for
+ * example the legs of a conference or a dial-out campaign.
+ * <p>
+ * Backends that can create connections and generate their offers in one
+ * request to the media server implement {@link Generator}; others can use
+ * {@link #individually(Factory)}, which issues all the requests without
+ * waiting for each other. Each entry of the batch succeeds or fails on its
+ * own: a successful entry holds a NetworkConnection waiting for an answer and
+ * its offer, a failed one holds the cause.
+ * </p>
+ */
+public final class OfferBatch {
+
+	/**
+	 * Creates the connections of {@link OfferBatch#individually(Factory)}
+	 */
+	public interface Factory {
+
+		/**
+		 * Creates a new NetworkConnection, without any offer generated
+		 * 
+		 * @return The NetworkConnection
+		 * @throws MediaException
+		 *             If the connection could not be created
+		 */
+		public NetworkConnection create() throws MediaException;
+	}
+
+	/**
+	 * Creates connections and generates their offers in one request
+	 */
+	public interface Generator {
+
+		/**
+		 * Creates the connections and generates their offers
+		 * 
+		 * @param count
+		 *            Number of connections
+		 * @param cont
+		 *            Continuation to notify when every entry has completed
+		 */
+		public void generateOffers(int count, BatchContinuation cont);
+	}
+
+	/**
+	 * Used as a callback for {@link Generator#generateOffers}
+	 */
+	public interface BatchContinuation {
+
+		/**
+		 * This method is called when every entry of the batch has completed,
+		 * even if some of them failed
+		 * 
+		 * @param batch
+		 *            The results
+		 */
+		public void onSucess(OfferBatch batch);
+
+		/**
+		 * This method gets called when the whole request fails and no
+		 * connection was created
+		 * 
+		 * @param cause
+		 *            The cause of the failure
+		 */
+		public void onError(Throwable cause);
+	}
+
+	private final NetworkConnection[] connections;
+	private final SessionSpec[] offers;
+	private final Throwable[] errors;
+
+	/**
+	 * Creates a batch from the results of a {@link Generator}. Each entry has
+	 * either a connection and its offer or the cause of its failure.
+	 * 
+	 * @param connections
+	 *            Connections of the entries, null for the failed ones
+	 * @param offers
+	 *            Offers of the entries, null for the failed ones
+	 * @param errors
+	 *            Causes of the failures, null for the successful entries
+	 */
+	public OfferBatch(NetworkConnection[] connections, SessionSpec[] offers,
+			Throwable[] errors) {
+		if (connections.length != offers.length
+				|| connections.length != errors.length) {
+			throw new IllegalArgumentException(
+					"Results of different sizes given");
+		}
+		this.connections = connections.clone();
+		this.offers = offers.clone();
+		this.errors = errors.clone();
+	}
+
+	private OfferBatch(int size) {
+		connections = new NetworkConnection[size];
+		offers = new SessionSpec[size];
+		errors = new Throwable[size];
+	}
+
+	/**
+	 * Returns a generator issuing one offer request per connection, all of
+	 * them without waiting for each other
+	 * 
+	 * @param factory
+	 *            Factory of the connections
+	 * @return The generator
+	 */
+	public static Generator individually(final Factory factory) {
+		return new Generator() {
+
+			@Override
+			public void generateOffers(int count, BatchContinuation cont) {
+				generateIndividually(factory, count, cont);
+			}
+		};
+	}
+
+	/**
+	 * Records a successful entry
+	 */
+	synchronized void succeeded(int index, NetworkConnection connection,
+			SessionSpec offer) {
+		connections[index] = connection;
+		offers[index] = offer;
+	}
+
+	/**
+	 * Records a failed entry
+	 */
+	synchronized void failed(int index, Throwable cause) {
+		errors[index] = cause;
+	}
+
+	/**
+	 * @return The number of entries
+	 */
+	public int size() {
+		return connections.length;
+	}
+
+	/**
+	 * @return The connection of an entry, or null if it failed
+	 */
+	public synchronized NetworkConnection getNetworkConnection(int index) {
+		return connections[index];
+	}
+
+	/**
+	 * @return The offer of an entry, or null if it failed
+	 */
+	public synchronized SessionSpec getSessionSpec(int index) {
+		return offers[index];
+	}
+
+	/**
+	 * @return The cause of the failure of an entry, or null if it succeeded
+	 */
+	public synchronized Throwable getError(int index) {
+		return errors[index];
+	}
+
+	/**
+	 * @return The number of entries that succeeded
+	 */
+	public synchronized int getSucceededCount() {
+		int count = 0;
+		for (NetworkConnection connection : connections) {
+			if (connection != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The number of entries that failed
+	 */
+	public synchronized int getFailedCount() {
+		int count = 0;
+		for (Throwable error : errors) {
+			if (error != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Releases the connections of all successful entries, for example when
+	 * the conference could not be started
+	 */
+	public void releaseAll() {
+		for (int i = 0; i < connections.length; i++) {
+			NetworkConnection connection = getNetworkConnection(i);
+			if (connection != null) {
+				connection.release();
+			}
+		}
+	}
+
+	private static void generateIndividually(Factory factory, int count,
+			final BatchContinuation cont) {
+		final OfferBatch batch = new OfferBatch(count);
+		final int[] pending = { count };
+
+		if (count == 0) {
+			cont.onSucess(batch);
+			return;
+		}
+
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			final NetworkConnection connection;
+			try {
+				connection = factory.create();
+			} catch (MediaException e) {
+				batch.failed(index, e);
+				completed(batch, pending, cont);
+				continue;
+			}
+
+			connection.generateSessionSpecOffer(new NetworkConnection.Continuation() {
+
+				@Override
+				public void onSucess(SessionSpec spec) {
+					batch.succeeded(index, connection, spec);
+					completed(batch, pending, cont);
+				}
+
+				@Override
+				public void onError(Throwable cause) {
+					connection.release();
+					batch.failed(index, cause);
+					completed(batch, pending, cont);
+				}
+			});
+		}
+	}
+
+	private static void completed(OfferBatch batch, int[] pending,
+			BatchContinuation cont) {
+		synchronized (pending) {
+			if (--pending[0] != 0) {
+				return;
+			}
+		}
+		cont.onSucess(batch);
+	}
+}
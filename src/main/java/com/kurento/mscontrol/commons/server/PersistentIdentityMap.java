@@ -0,0 +1,237 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.List;
+
+/**
+ * Immutable map comparing keys by identity.
+ * <p>
+ * Updates return a new map that shares all the unchanged nodes with this one
+ * (a hash array mapped trie), so they only copy O(log n) nodes and any
+ * reference to an older map remains a consistent view.
+ * </p>
+ */
+final class PersistentIdentityMap<K, V> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	@SuppressWarnings("rawtypes")
+	private static final PersistentIdentityMap EMPTY = new PersistentIdentityMap(
+			null, 0);
+
+	private static final class Entry {
+
+		final int hash;
+		final Object key;
+		final Object value;
+
+		/**
+		 * Next entry with the same hash
+		 */
+		final Entry next;
+
+		Entry(int hash, Object key, Object value, Entry next) {
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Each slot holds an Entry or a Node, in the order of their bit in
+	 * bitmap
+	 */
+	private static final class Node {
+
+		final int bitmap;
+		final Object[] slots;
+
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+	}
+
+	private final Node root;
+	private final int size;
+
+	private PersistentIdentityMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentIdentityMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(K key) {
+		int hash = System.identityHashCode(key);
+		Node node = root;
+		int shift = 0;
+
+		while (node != null) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+			Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+			if (slot instanceof Node) {
+				node = (Node) slot;
+				shift += BITS;
+				continue;
+			}
+			for (Entry e = (Entry) slot; e != null; e = e.next) {
+				if (e.key == key) {
+					return (V) e.value;
+				}
+			}
+			return null;
+		}
+		return null;
+	}
+
+	PersistentIdentityMap<K, V> put(K key, V value) {
+		int hash = System.identityHashCode(key);
+		boolean added = get(key) == null;
+		Node newRoot = put(root, 0, new Entry(hash, key, value, null));
+		return new PersistentIdentityMap<K, V>(newRoot, added ? size + 1
+				: size);
+	}
+
+	PersistentIdentityMap<K, V> remove(K key) {
+		if (get(key) == null) {
+			return this;
+		}
+		Node newRoot = remove(root, 0, System.identityHashCode(key), key);
+		return new PersistentIdentityMap<K, V>(newRoot, size - 1);
+	}
+
+	/**
+	 * Appends all keys and values to the given lists, at the same positions
+	 */
+	@SuppressWarnings("unchecked")
+	void collect(List<K> keys, List<V> values) {
+		collect(root, (List<Object>) keys, (List<Object>) values);
+	}
+
+	private static void collect(Node node, List<Object> keys,
+			List<Object> values) {
+		if (node == null) {
+			return;
+		}
+		for (Object slot : node.slots) {
+			if (slot instanceof Node) {
+				collect((Node) slot, keys, values);
+			} else {
+				for (Entry e = (Entry) slot; e != null; e = e.next) {
+					keys.add(e.key);
+					values.add(e.value);
+				}
+			}
+		}
+	}
+
+	private static Node put(Node node, int shift, Entry entry) {
+		int bit = 1 << ((entry.hash >>> shift) & MASK);
+
+		if (node == null) {
+			return new Node(bit, new Object[] { entry });
+		}
+
+		int pos = Integer.bitCount(node.bitmap & (bit - 1));
+		if ((node.bitmap & bit) == 0) {
+			Object[] slots = new Object[node.slots.length + 1];
+			System.arraycopy(node.slots, 0, slots, 0, pos);
+			slots[pos] = entry;
+			System.arraycopy(node.slots, pos, slots, pos + 1,
+					node.slots.length - pos);
+			return new Node(node.bitmap | bit, slots);
+		}
+
+		Object slot = node.slots[pos];
+		Object replacement;
+		if (slot instanceof Node) {
+			replacement = put((Node) slot, shift + BITS, entry);
+		} else {
+			Entry existing = (Entry) slot;
+			if (existing.hash == entry.hash) {
+				replacement = new Entry(entry.hash, entry.key, entry.value,
+						without(existing, entry.key));
+			} else {
+				// Moves the whole chain one level down
+				Node split = put(null, shift + BITS, existing);
+				replacement = put(split, shift + BITS, entry);
+			}
+		}
+
+		Object[] slots = node.slots.clone();
+		slots[pos] = replacement;
+		return new Node(node.bitmap, slots);
+	}
+
+	private static Node remove(Node node, int shift, int hash, Object key) {
+		int bit = 1 << ((hash >>> shift) & MASK);
+		int pos = Integer.bitCount(node.bitmap & (bit - 1));
+		Object slot = node.slots[pos];
+		Object replacement;
+
+		if (slot instanceof Node) {
+			replacement = remove((Node) slot, shift + BITS, hash, key);
+		} else {
+			replacement = without((Entry) slot, key);
+		}
+
+		if (replacement != null) {
+			Object[] slots = node.slots.clone();
+			slots[pos] = replacement;
+			return new Node(node.bitmap, slots);
+		}
+
+		if (node.slots.length == 1) {
+			return null;
+		}
+		Object[] slots = new Object[node.slots.length - 1];
+		System.arraycopy(node.slots, 0, slots, 0, pos);
+		System.arraycopy(node.slots, pos + 1, slots, pos, slots.length - pos);
+		return new Node(node.bitmap & ~bit, slots);
+	}
+
+	/**
+	 * Returns the chain without the entry for key, sharing its tail
+	 */
+	private static Entry without(Entry chain, Object key) {
+		if (chain == null) {
+			return null;
+		}
+		if (chain.key == key) {
+			return chain.next;
+		}
+		Entry rest = without(chain.next, key);
+		if (rest == chain.next) {
+			return chain;
+		}
+		return new Entry(chain.hash, chain.key, chain.value, rest);
+	}
+}
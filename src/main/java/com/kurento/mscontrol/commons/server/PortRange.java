@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import com.kurento.mscontrol.commons.MediaException;
+
+/**
+ * Range of RTP ports shared by the NetworkConnections of a media server.
+ * <p>
+ * Each allocation takes an even RTP port and the following RTCP port. An
+ * allocation is first reserved, which only takes it out of the range so it
+ * can be announced in an offer, and later bound, when the implementation
+ * opens its sockets. Connections in lazy mode keep offers reserved until they
+ * are answered or confirmed, so offers that are never answered do not hold
+ * any socket.
+ * </p>
+ * <p>
+ * Ports are usually cheaper than the sockets and media pipelines bound to
+ * them, so a range can limit bound allocations below its capacity. Reserved
+ * allocations only count against the capacity, which lets a range over-commit
+ * its sockets to offers that may never be answered: with a limit of
+ * <code>n</code> bound allocations, eager connections can have at most
+ * <code>n</code> outstanding offers while lazy ones can have up to the
+ * capacity.
+ * </p>
+ * <p>
+ * All operations are O(1). This class is thread-safe.
+ * </p>
+ */
+public final class PortRange {
+
+	private static final byte FREE = 0;
+	private static final byte RESERVED = 1;
+	private static final byte BOUND = 2;
+
+	private final int first;
+	private final int maxBound;
+	private final byte[] states;
+	private final int[] free;
+	private int freeCount;
+	private int boundCount;
+
+	/**
+	 * Creates a range whose allocations can all be bound
+	 * 
+	 * @param first
+	 *            First port of the range
+	 * @param last
+	 *            Last port of the range
+	 */
+	public PortRange(int first, int last) {
+		this(first, last, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a range limiting the number of bound allocations
+	 * 
+	 * @param first
+	 *            First port of the range
+	 * @param last
+	 *            Last port of the range
+	 * @param maxBound
+	 *            Maximum number of allocations bound at the same time
+	 */
+	public PortRange(int first, int last, int maxBound) {
+		if (first <= 0 || last > 65535 || last <= first) {
+			throw new IllegalArgumentException("Invalid port range: " + first
+					+ "-" + last);
+		}
+		if (maxBound <= 0) {
+			throw new IllegalArgumentException("Invalid bound limit: "
+					+ maxBound);
+		}
+		this.first = first + (first & 1);
+		int size = (last - this.first + 1) / 2;
+		this.maxBound = Math.min(maxBound, size);
+		states = new byte[size];
+		free = new int[size];
+		for (int i = 0; i < size; i++) {
+			free[i] = size - 1 - i;
+		}
+		freeCount = size;
+	}
+
+	/**
+	 * Reserves an allocation
+	 * 
+	 * @return Its RTP port, the RTCP port is the next one
+	 * @throws MediaException
+	 *             If every port of the range is reserved or bound
+	 */
+	public synchronized int reserve() throws MediaException {
+		if (freeCount == 0) {
+			throw new MediaException("No ports available");
+		}
+		int slot = free[--freeCount];
+		states[slot] = RESERVED;
+		return first + 2 * slot;
+	}
+
+	/**
+	 * Marks a reserved allocation as bound
+	 * 
+	 * @param port
+	 *            Its RTP port
+	 * @throws MediaException
+	 *             If the limit of bound allocations has been reached
+	 */
+	public synchronized void bind(int port) throws MediaException {
+		int slot = slot(port);
+		if (states[slot] != RESERVED) {
+			throw new IllegalStateException("Port " + port + " not reserved");
+		}
+		if (boundCount == maxBound) {
+			throw new MediaException("No sockets available");
+		}
+		states[slot] = BOUND;
+		boundCount++;
+	}
+
+	/**
+	 * Returns a bound allocation to the reserved state, keeping it out of the
+	 * range
+	 * 
+	 * @param port
+	 *            Its RTP port
+	 */
+	public synchronized void unbind(int port) {
+		int slot = slot(port);
+		if (states[slot] != BOUND) {
+			throw new IllegalStateException("Port " + port + " not bound");
+		}
+		states[slot] = RESERVED;
+		boundCount--;
+	}
+
+	/**
+	 * Returns an allocation to the range, whether it was bound or only
+	 * reserved
+	 * 
+	 * @param port
+	 *            Its RTP port
+	 */
+	public synchronized void free(int port) {
+		int slot = slot(port);
+		if (states[slot] == FREE) {
+			return;
+		}
+		if (states[slot] == BOUND) {
+			boundCount--;
+		}
+		states[slot] = FREE;
+		free[freeCount++] = slot;
+	}
+
+	/**
+	 * @return The number of allocations the range can hold
+	 */
+	public int getCapacity() {
+		return states.length;
+	}
+
+	/**
+	 * @return The number of allocations that can be bound at the same time
+	 */
+	public int getMaxBound() {
+		return maxBound;
+	}
+
+	/**
+	 * @return The number of free allocations
+	 */
+	public synchronized int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * @return The number of allocations reserved and not bound yet
+	 */
+	public synchronized int getReservedCount() {
+		return states.length - freeCount - boundCount;
+	}
+
+	/**
+	 * @return The number of bound allocations
+	 */
+	public synchronized int getBoundCount() {
+		return boundCount;
+	}
+
+	private int slot(int port) {
+		int offset = port - first;
+		if (offset < 0 || (offset & 1) != 0 || offset / 2 >= states.length) {
+			throw new IllegalArgumentException("Port " + port
+					+ " not in range");
+		}
+		return offset / 2;
+	}
+}
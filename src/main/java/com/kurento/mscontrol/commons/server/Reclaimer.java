@@ -0,0 +1,357 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.kurento.mscontrol.commons.MediaStream;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+/**
+ * Releases NetworkConnections and MediaStreams in the background.
+ * <p>
+ * Releasing an object talks to the media server and blocks the calling
+ * thread, which during mass hang-ups may be a signalling thread. Objects
+ * given to the reclaimer are queued in O(1) and released by a task on the
+ * given executor, in batches: the objects of each batch are grouped by their
+ * {@link Releaser}, so backends able to release many objects in one request
+ * can register one with {@link #setReleaser(Class, Releaser)}.
+ * </p>
+ * <p>
+ * The queue is bounded; when it is full, when the executor rejects the
+ * batch, or once the reclaimer is closed, objects are released on the
+ * calling thread instead. This class is thread-safe.
+ * </p>
+ */
+public final class Reclaimer {
+
+	/**
+	 * Releases a batch of objects of one backend
+	 */
+	public interface Releaser<T> {
+
+		/**
+		 * Releases the objects, which must not be used afterwards. A failure
+		 * to release one object must not prevent the release of the others.
+		 * 
+		 * @param items
+		 *            The objects to release
+		 * @return The objects that could not be released, empty if none
+		 */
+		public List<T> release(List<T> items);
+	}
+
+	/**
+	 * Releases NetworkConnections one by one
+	 */
+	public static final Releaser<NetworkConnection> NETWORK_CONNECTIONS = new Releaser<NetworkConnection>() {
+
+		@Override
+		public List<NetworkConnection> release(List<NetworkConnection> items) {
+			List<NetworkConnection> failed = new ArrayList<NetworkConnection>(0);
+			for (NetworkConnection connection : items) {
+				try {
+					connection.release();
+				} catch (RuntimeException e) {
+					failed.add(connection);
+				}
+			}
+			return failed;
+		}
+	};
+
+	/**
+	 * Releases MediaStreams one by one
+	 */
+	public static final Releaser<MediaStream> MEDIA_STREAMS = new Releaser<MediaStream>() {
+
+		@Override
+		public List<MediaStream> release(List<MediaStream> items) {
+			List<MediaStream> failed = new ArrayList<MediaStream>(0);
+			for (MediaStream stream : items) {
+				try {
+					stream.release();
+				} catch (RuntimeException e) {
+					failed.add(stream);
+				}
+			}
+			return failed;
+		}
+	};
+
+	private static final class Request {
+
+		final Object item;
+		final Releaser<Object> releaser;
+		final long queuedAt;
+
+		Request(Object item, Releaser<Object> releaser) {
+			this.item = item;
+			this.releaser = releaser;
+			this.queuedAt = System.nanoTime();
+		}
+	}
+
+	private final BlockingQueue<Request> queue;
+	private final int maxBatch;
+	private final Executor executor;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Map<Class<?>, Releaser<?>> releasers = new HashMap<Class<?>, Releaser<?>>();
+
+	private final Runnable drain = new Runnable() {
+
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	private volatile boolean closed;
+
+	private long reclaimed;
+	private long failures;
+	private long inline;
+	private long totalLatency;
+	private long maxLatency;
+
+	/**
+	 * Creates a reclaimer
+	 * 
+	 * @param capacity
+	 *            Maximum number of queued objects
+	 * @param maxBatch
+	 *            Maximum number of objects released by one batch
+	 * @param executor
+	 *            Executor running the batches, owned by the caller
+	 */
+	public Reclaimer(int capacity, int maxBatch, Executor executor) {
+		if (maxBatch <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		this.queue = new ArrayBlockingQueue<Request>(capacity);
+		this.maxBatch = maxBatch;
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the releaser of the NetworkConnections or MediaStreams of the
+	 * given class. Objects of other classes are released one by one.
+	 * 
+	 * @param type
+	 *            Class of the objects, matched exactly
+	 * @param releaser
+	 *            Its releaser
+	 */
+	public synchronized <T> void setReleaser(Class<? extends T> type,
+			Releaser<T> releaser) {
+		releasers.put(type, releaser);
+	}
+
+	/**
+	 * Releases a NetworkConnection in the background
+	 * 
+	 * @param connection
+	 *            The NetworkConnection
+	 * @return true if it was queued, false if it was released on the calling
+	 *         thread
+	 */
+	public boolean release(NetworkConnection connection) {
+		return submit(connection, releaserOf(connection, NETWORK_CONNECTIONS));
+	}
+
+	/**
+	 * Releases a MediaStream in the background
+	 * 
+	 * @param stream
+	 *            The MediaStream
+	 * @return true if it was queued, false if it was released on the calling
+	 *         thread
+	 */
+	public boolean release(MediaStream stream) {
+		return submit(stream, releaserOf(stream, MEDIA_STREAMS));
+	}
+
+	/**
+	 * Stops queueing and releases the queued objects on the calling thread
+	 */
+	public void close() {
+		closed = true;
+		drain();
+	}
+
+	/**
+	 * @return The number of objects waiting to be released
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return The number of objects released in the background
+	 */
+	public synchronized long getReclaimed() {
+		return reclaimed;
+	}
+
+	/**
+	 * @return The number of objects that could not be released
+	 */
+	public synchronized long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return The number of objects released on the calling thread
+	 */
+	public synchronized long getReleasedInline() {
+		return inline;
+	}
+
+	/**
+	 * @return The mean time from queueing to release, in nanoseconds
+	 */
+	public synchronized long getMeanLatency() {
+		return reclaimed == 0 ? 0 : totalLatency / reclaimed;
+	}
+
+	/**
+	 * @return The longest time from queueing to release, in nanoseconds
+	 */
+	public synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized <T> Releaser<Object> releaserOf(T item,
+			Releaser<T> defaultReleaser) {
+		Releaser<?> releaser = releasers.get(item.getClass());
+		return (Releaser<Object>) (releaser != null ? releaser
+				: defaultReleaser);
+	}
+
+	private boolean submit(Object item, Releaser<Object> releaser) {
+		Request request = new Request(item, releaser);
+		if (closed || !queue.offer(request)) {
+			releaseInline(item, releaser);
+			return false;
+		}
+
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(drain);
+			} catch (RuntimeException e) {
+				// The executor rejected the batch: let the next request
+				// schedule it, and do not keep this one waiting for it
+				scheduled.set(false);
+				if (queue.remove(request)) {
+					releaseInline(item, releaser);
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void releaseInline(Object item, Releaser<Object> releaser) {
+		List<Object> single = new ArrayList<Object>(1);
+		single.add(item);
+		boolean released = releaseGroup(releaser, single).isEmpty();
+		synchronized (this) {
+			if (released) {
+				inline++;
+			} else {
+				failures++;
+			}
+		}
+	}
+
+	private void drain() {
+		List<Request> batch = new ArrayList<Request>(maxBatch);
+
+		for (;;) {
+			while (queue.drainTo(batch, maxBatch) > 0) {
+				releaseBatch(batch);
+				batch.clear();
+			}
+
+			scheduled.set(false);
+			// A request queued after the last drainTo may have seen the flag
+			// still set
+			if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+				return;
+			}
+		}
+	}
+
+	private void releaseBatch(List<Request> batch) {
+		Map<Releaser<Object>, List<Object>> groups = new IdentityHashMap<Releaser<Object>, List<Object>>();
+		for (Request request : batch) {
+			List<Object> items = groups.get(request.releaser);
+			if (items == null) {
+				items = new ArrayList<Object>();
+				groups.put(request.releaser, items);
+			}
+			items.add(request.item);
+		}
+
+		Map<Object, Boolean> failed = new IdentityHashMap<Object, Boolean>();
+		for (Map.Entry<Releaser<Object>, List<Object>> group : groups
+				.entrySet()) {
+			for (Object item : releaseGroup(group.getKey(), group.getValue())) {
+				failed.put(item, Boolean.TRUE);
+			}
+		}
+
+		long now = System.nanoTime();
+		synchronized (this) {
+			failures += failed.size();
+			for (Request request : batch) {
+				if (failed.containsKey(request.item)) {
+					continue;
+				}
+				long latency = now - request.queuedAt;
+				totalLatency += latency;
+				if (latency > maxLatency) {
+					maxLatency = latency;
+				}
+				reclaimed++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the items the releaser could not release, all of them if it
+	 * threw
+	 */
+	private static List<Object> releaseGroup(Releaser<Object> releaser,
+			List<Object> items) {
+		try {
+			List<Object> failed = releaser.release(items);
+			return failed != null ? failed : Collections.emptyList();
+		} catch (RuntimeException e) {
+			return items;
+		}
+	}
+}
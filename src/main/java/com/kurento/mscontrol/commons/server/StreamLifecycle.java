@@ -0,0 +1,298 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons.server;
+
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.MediaStream;
+
+/**
+ * Lifecycle of a {@link MediaStream}.
+ * <p>
+ * A stream is created, started and stopped any number of times and finally
+ * released. Start, stop and release may be called concurrently from any
+ * thread. Calls that find the stream already in the requested state return
+ * false without locking and without reaching the backend. Actual transitions
+ * are serialized with the backend call given to them, so the backend sees
+ * the same sequence of changes as the state:
+ * </p>
+ * 
+ * <pre>
+ * public void start() throws MediaException {
+ * 	lifecycle.start(new StreamLifecycle.Transition() {
+ * 
+ * 		public void run() throws MediaException {
+ * 			backend.play();
+ * 		}
+ * 	});
+ * }
+ * </pre>
+ * <p>
+ * Starting or stopping a released stream is illegal and throws
+ * {@link IllegalStateException}. Releasing it again has no effect.
+ * </p>
+ */
+public final class StreamLifecycle {
+
+	/**
+	 * States of a stream
+	 */
+	public enum State {
+		/**
+		 * Created and never started
+		 */
+		CREATED,
+		/**
+		 * Sending or receiving media
+		 */
+		STARTED,
+		/**
+		 * Stopped after being started, it may be started again
+		 */
+		STOPPED,
+		/**
+		 * Released, it can not be started any more
+		 */
+		RELEASED
+	}
+
+	/**
+	 * Backend call made by a transition. It runs while the lifecycle is
+	 * locked, so it must not call the lifecycle of the same stream.
+	 */
+	public interface Transition {
+
+		/**
+		 * Applies the transition to the backend
+		 * 
+		 * @throws MediaException
+		 *             If the backend failed; the state is left unchanged,
+		 *             except on release
+		 */
+		public void run() throws MediaException;
+	}
+
+	/**
+	 * Written only while holding the lock, read without it by the calls that
+	 * have nothing to do
+	 */
+	private volatile State state;
+
+	/**
+	 * Creates a lifecycle in {@link State#CREATED}
+	 */
+	public StreamLifecycle() {
+		this(State.CREATED);
+	}
+
+	/**
+	 * Creates a lifecycle in the given state, for streams that are started
+	 * or stopped as soon as they are created
+	 * 
+	 * @param initial
+	 *            Initial state
+	 */
+	public StreamLifecycle(State initial) {
+		if (initial == null) {
+			throw new NullPointerException("initial state must not be null");
+		}
+		state = initial;
+	}
+
+	/**
+	 * @return The current state of the stream
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return true if the stream is in {@link State#STARTED}
+	 */
+	public boolean isStarted() {
+		return state == State.STARTED;
+	}
+
+	/**
+	 * @return true if the stream has been released
+	 */
+	public boolean isReleased() {
+		return state == State.RELEASED;
+	}
+
+	/**
+	 * Moves the stream to {@link State#STARTED}, for streams without a
+	 * backend call
+	 * 
+	 * @return true if the stream was not started, false if it already was
+	 * @throws IllegalStateException
+	 *             if the stream has been released
+	 */
+	public boolean start() {
+		try {
+			return start(null);
+		} catch (MediaException e) {
+			// Only thrown by backend calls
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Moves the stream to {@link State#STARTED}
+	 * 
+	 * @param backend
+	 *            Call starting the media flow, or null
+	 * @return true if the stream was not started, false if it already was
+	 * @throws MediaException
+	 *             if the backend could not start, the stream keeps its state
+	 * @throws IllegalStateException
+	 *             if the stream has been released
+	 */
+	public boolean start(Transition backend) throws MediaException {
+		State current = state;
+		if (current == State.STARTED) {
+			return false;
+		}
+		checkNotReleased(current);
+
+		synchronized (this) {
+			current = state;
+			if (current == State.STARTED) {
+				return false;
+			}
+			checkNotReleased(current);
+			if (backend != null) {
+				backend.run();
+			}
+			state = State.STARTED;
+			return true;
+		}
+	}
+
+	/**
+	 * Moves a started stream to {@link State#STOPPED}, for streams without a
+	 * backend call
+	 * 
+	 * @return true if the stream was started, false otherwise
+	 * @throws IllegalStateException
+	 *             if the stream has been released
+	 */
+	public boolean stop() {
+		try {
+			return stop(null);
+		} catch (MediaException e) {
+			// Only thrown by backend calls
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Moves a started stream to {@link State#STOPPED}
+	 * 
+	 * @param backend
+	 *            Call stopping the media flow, or null
+	 * @return true if the stream was started, false otherwise
+	 * @throws MediaException
+	 *             if the backend could not stop, the stream keeps its state
+	 * @throws IllegalStateException
+	 *             if the stream has been released
+	 */
+	public boolean stop(Transition backend) throws MediaException {
+		State current = state;
+		checkNotReleased(current);
+		if (current != State.STARTED) {
+			return false;
+		}
+
+		synchronized (this) {
+			current = state;
+			checkNotReleased(current);
+			if (current != State.STARTED) {
+				return false;
+			}
+			if (backend != null) {
+				backend.run();
+			}
+			state = State.STOPPED;
+			return true;
+		}
+	}
+
+	/**
+	 * Moves the stream to {@link State#RELEASED}, for streams without a
+	 * backend call
+	 * 
+	 * @return The state the stream was in or null if it had already been
+	 *         released
+	 */
+	public State release() {
+		try {
+			return release(null);
+		} catch (MediaException e) {
+			// Only thrown by backend calls
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Moves the stream to {@link State#RELEASED}. The stream is released
+	 * even if the backend call fails.
+	 * 
+	 * @param backend
+	 *            Call releasing the backend resources, or null
+	 * @return The state the stream was in or null if it had already been
+	 *         released
+	 * @throws MediaException
+	 *             if the backend could not release its resources
+	 */
+	public State release(Transition backend) throws MediaException {
+		if (state == State.RELEASED) {
+			return null;
+		}
+
+		synchronized (this) {
+			State previous = state;
+			if (previous == State.RELEASED) {
+				return null;
+			}
+			try {
+				if (backend != null) {
+					backend.run();
+				}
+			} finally {
+				state = State.RELEASED;
+			}
+			return previous;
+		}
+	}
+
+	/**
+	 * Throws {@link IllegalStateException} if the stream has been released
+	 */
+	public void checkNotReleased() {
+		checkNotReleased(state);
+	}
+
+	private static void checkNotReleased(State current) {
+		if (current == State.RELEASED) {
+			throw new IllegalStateException("Stream has been released");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return state.toString();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+/**
+ * Bounded queue of media frames backed by preallocated arrays.
+ * <p>
+ * Frames are copied in and out of fixed size slots, so writing and reading
+ * frames does not allocate. A ring supports one writer thread and one reader
+ * thread at the same time. Frames written while the ring is full, or bigger
+ * than a slot, are dropped and counted.
+ * </p>
+ */
+final class FrameRing {
+
+	private final int slotSize;
+	private final byte[] data;
+	private final int[] lengths;
+	private final long[] timestamps;
+
+	/**
+	 * Next slot to write, only modified by the writer
+	 */
+	private volatile long head;
+
+	/**
+	 * Next slot to read, only modified by the reader
+	 */
+	private volatile long tail;
+
+	private volatile long dropped;
+
+	private long lastTimestamp;
+
+	FrameRing(int slots, int slotSize) {
+		if (slots <= 0 || slotSize <= 0) {
+			throw new IllegalArgumentException(
+					"Ring size and slot size must be positive");
+		}
+		this.slotSize = slotSize;
+		this.data = new byte[slots * slotSize];
+		this.lengths = new int[slots];
+		this.timestamps = new long[slots];
+	}
+
+	/**
+	 * Copies a frame into the ring
+	 * 
+	 * @return false if the frame has been dropped
+	 */
+	boolean write(byte[] frame, int offset, int length, long timestamp) {
+		long h = head;
+		if (length > slotSize || h - tail == lengths.length) {
+			dropped++;
+			return false;
+		}
+
+		int slot = (int) (h % lengths.length);
+		System.arraycopy(frame, offset, data, slot * slotSize, length);
+		lengths[slot] = length;
+		timestamps[slot] = timestamp;
+		head = h + 1;
+		return true;
+	}
+
+	/**
+	 * Copies the oldest frame out of the ring
+	 * 
+	 * @return the length of the frame or -1 if the ring is empty
+	 */
+	int read(byte[] buffer, int offset) {
+		long t = tail;
+		if (t == head) {
+			return -1;
+		}
+
+		int slot = (int) (t % lengths.length);
+		int length = lengths[slot];
+		System.arraycopy(data, slot * slotSize, buffer, offset, length);
+		lastTimestamp = timestamps[slot];
+		tail = t + 1;
+		return length;
+	}
+
+	/**
+	 * Returns the timestamp of the last frame read
+	 */
+	long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	int size() {
+		return (int) (head - tail);
+	}
+
+	long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Discards all the frames. Must not run concurrently with read.
+	 */
+	void clear() {
+		tail = head;
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.server.PortRange;
+
+public class InMemoryEngineTest extends TestCase {
+
+	private static class Result implements NetworkConnection.Continuation {
+
+		SessionSpec spec;
+		Throwable error;
+
+		@Override
+		public void onSucess(SessionSpec spec) {
+			this.spec = spec;
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			this.error = cause;
+		}
+	}
+
+	public void testFrameDelivery() throws Exception {
+		InMemoryJoinable a = new InMemoryJoinable(MediaType.AUDIO,
+				MediaType.VIDEO);
+		InMemoryJoinable b = new InMemoryJoinable(MediaType.AUDIO,
+				MediaType.VIDEO);
+
+		a.join(b);
+		assertSame(a.getMediaSrc(MediaType.AUDIO), b.getMediaSink(
+				MediaType.AUDIO).getConnectedSrc());
+
+		byte[] frame = { 1, 2, 3 };
+		assertEquals(1, a.getMediaSrc(MediaType.AUDIO).write(frame, 0,
+				frame.length, 20));
+
+		InMemoryMediaSink sink = b.getMediaSink(MediaType.AUDIO);
+		byte[] buffer = new byte[InMemoryMediaSink.DEFAULT_SLOT_SIZE];
+		assertEquals(1, sink.getQueuedFrames());
+		assertEquals(3, sink.read(buffer, 0));
+		assertEquals(3, buffer[2]);
+		assertEquals(20, sink.getLastTimestamp());
+		assertEquals(-1, sink.read(buffer, 0));
+		assertEquals(0, b.getMediaSink(MediaType.VIDEO).getQueuedFrames());
+
+		a.unjoin(b);
+		assertNull(sink.getConnectedSrc());
+		assertEquals(0, a.getMediaSrc(MediaType.AUDIO).write(frame, 0,
+				frame.length, 40));
+
+		a.release();
+		b.release();
+	}
+
+	public void testDroppedFrames() throws Exception {
+		InMemoryJoinable a = new InMemoryJoinable(2, 4, MediaType.AUDIO);
+		InMemoryJoinable b = new InMemoryJoinable(2, 4, MediaType.AUDIO);
+		a.join(b);
+
+		InMemoryMediaSrc src = a.getMediaSrc(MediaType.AUDIO);
+		InMemoryMediaSink sink = b.getMediaSink(MediaType.AUDIO);
+		byte[] frame = new byte[4];
+		assertEquals(1, src.write(frame, 0, 4, 0));
+		assertEquals(1, src.write(frame, 0, 4, 1));
+		assertEquals(0, src.write(frame, 0, 4, 2));
+		assertEquals(0, src.write(new byte[5], 0, 5, 3));
+		assertEquals(2, sink.getDroppedFrames());
+
+		sink.stop();
+		assertEquals(4, sink.read(new byte[4], 0));
+		assertEquals(0, src.write(frame, 0, 4, 4));
+	}
+
+	public void testNegotiation() throws Exception {
+		InMemoryNetworkConnection offerer = new InMemoryNetworkConnection(
+				MediaType.AUDIO, MediaType.VIDEO);
+		InMemoryNetworkConnection answerer = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+
+		Result offer = new Result();
+		offerer.generateSessionSpecOffer(offer);
+		assertNotNull(offer.spec);
+		assertEquals(2, offer.spec.getMedias().size());
+
+		Result answer = new Result();
+		answerer.processSessionSpecOffer(offer.spec, answer);
+		assertNotNull(answer.spec);
+		assertEquals(1, answer.spec.getMedias().get(0).getPayloads().size());
+		assertTrue(answer.spec.getMedias().get(1).getPayloads().isEmpty());
+
+		Result local = new Result();
+		offerer.processSessionSpecAnswer(answer.spec, local);
+		assertSame(offer.spec, local.spec);
+		assertSame(answer.spec, offerer.getRemoteSessionSpec());
+
+		Result reoffer = new Result();
+		offerer.generateSessionSpecOffer(reoffer);
+		assertNotNull(reoffer.spec);
+
+		Result again = new Result();
+		offerer.generateSessionSpecOffer(again);
+		assertNotNull(again.error);
+
+		offerer.release();
+		try {
+			offerer.confirm();
+			fail("Confirming a released NetworkConnection should fail");
+		} catch (IllegalStateException e) {
+		}
+		answerer.release();
+	}
+
+	public void testRenegotiation() throws Exception {
+		InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+				MediaType.AUDIO, MediaType.VIDEO);
+		InMemoryJoinable player = new InMemoryJoinable(MediaType.AUDIO,
+				MediaType.VIDEO);
+
+		Result audioOffer = new Result();
+		new InMemoryNetworkConnection(MediaType.AUDIO)
+				.generateSessionSpecOffer(audioOffer);
+		Result first = new Result();
+		nc.processSessionSpecOffer(audioOffer.spec, first);
+		assertEquals(1, first.spec.getMedias().size());
+		nc.join(player);
+
+		Result videoOffer = new Result();
+		new InMemoryNetworkConnection(MediaType.AUDIO, MediaType.VIDEO)
+				.generateSessionSpecOffer(videoOffer);
+		SessionSpecDiff diff = SessionSpecDiff.compare(audioOffer.spec,
+				videoOffer.spec);
+		assertEquals(SessionSpecDiff.Change.UNCHANGED, diff.getChange(0));
+		assertEquals(SessionSpecDiff.Change.ADDED, diff.getChange(1));
+
+		Result second = new Result();
+		nc.processSessionSpecOffer(videoOffer.spec, second);
+		assertNull(second.error);
+		assertSame(first.spec.getMedias().get(0), second.spec.getMedias()
+				.get(0));
+		assertFalse(second.spec.getMedias().get(1).getPayloads().isEmpty());
+		assertSame(videoOffer.spec, nc.getRemoteSessionSpec());
+		assertTrue(nc.getJoinees().contains(player));
+		assertSame(nc.getMediaSrc(MediaType.VIDEO),
+				player.getMediaSink(MediaType.VIDEO).getConnectedSrc());
+	}
+
+	public void testLazyPorts() throws Exception {
+		PortRange ports = new PortRange(5000, 5007);
+		assertEquals(4, ports.getCapacity());
+
+		InMemoryNetworkConnection offerer = new InMemoryNetworkConnection(
+				ports, true, MediaType.AUDIO, MediaType.VIDEO);
+		Result offer = new Result();
+		offerer.generateSessionSpecOffer(offer);
+		assertEquals(2, offerer.getPorts().length);
+		assertEquals(2, ports.getReservedCount());
+		assertFalse(offerer.isBound());
+
+		InMemoryNetworkConnection answerer = new InMemoryNetworkConnection(
+				ports, false, MediaType.AUDIO, MediaType.VIDEO);
+		Result answer = new Result();
+		answerer.processSessionSpecOffer(offer.spec, answer);
+		assertTrue(answerer.isBound());
+		assertEquals(2, ports.getBoundCount());
+
+		InMemoryNetworkConnection third = new InMemoryNetworkConnection(
+				ports, true, MediaType.AUDIO);
+		Result unavailable = new Result();
+		third.generateSessionSpecOffer(unavailable);
+		assertNotNull(unavailable.error);
+		assertEquals(0, third.getPorts().length);
+
+		offerer.processSessionSpecAnswer(answer.spec, new Result());
+		assertTrue(offerer.isBound());
+		assertEquals(4, ports.getBoundCount());
+
+		offerer.release();
+		answerer.release();
+		assertEquals(4, ports.getFreeCount());
+	}
+
+	public void testLazyPortsOverCommit() throws Exception {
+		assertEquals(2, outstandingOffers(false));
+		assertEquals(4, outstandingOffers(true));
+
+		PortRange ports = new PortRange(5000, 5007, 2);
+		List<InMemoryNetworkConnection> offerers = offer(ports, true);
+		Result answer = new Result();
+		new InMemoryNetworkConnection(MediaType.AUDIO)
+				.processSessionSpecOffer(offerers.get(0).getSessionSpec(),
+						answer);
+		for (InMemoryNetworkConnection offerer : offerers.subList(0, 2)) {
+			Result result = new Result();
+			offerer.processSessionSpecAnswer(answer.spec, result);
+			assertNull(result.error);
+		}
+		Result exhausted = new Result();
+		offerers.get(2).processSessionSpecAnswer(answer.spec, exhausted);
+		assertNotNull(exhausted.error);
+		assertFalse(offerers.get(2).isBound());
+		assertEquals(2, ports.getBoundCount());
+		assertEquals(2, ports.getReservedCount());
+
+		offerers.get(0).release();
+		offerers.get(2).confirm();
+		assertTrue(offerers.get(2).isBound());
+	}
+
+	private static int outstandingOffers(boolean lazy) {
+		PortRange ports = new PortRange(5000, 5007, 2);
+		return offer(ports, lazy).size();
+	}
+
+	private static List<InMemoryNetworkConnection> offer(PortRange ports,
+			boolean lazy) {
+		List<InMemoryNetworkConnection> offerers =
+				new ArrayList<InMemoryNetworkConnection>();
+		while (true) {
+			InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+					ports, lazy, MediaType.AUDIO);
+			Result offer = new Result();
+			nc.generateSessionSpecOffer(offer);
+			if (offer.error != null) {
+				return offerers;
+			}
+			offerers.add(nc);
+		}
+	}
+
+	public void testProgressiveOffer() throws Exception {
+		InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+				MediaType.AUDIO, MediaType.VIDEO);
+		final List<Integer> ready = new ArrayList<Integer>();
+		final SessionSpec[] complete = new SessionSpec[1];
+
+		nc.generateSessionSpecOffer(new NetworkConnection.ProgressiveContinuation() {
+
+			@Override
+			public void onMediaReady(SessionSpec partial, int index) {
+				assertNull(complete[0]);
+				assertEquals(index + 1, partial.getMedias().size());
+				ready.add(index);
+			}
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				complete[0] = spec;
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				fail("Error generating offer: " + cause.getMessage());
+			}
+		});
+
+		assertEquals(2, ready.size());
+		assertEquals(0, ready.get(0).intValue());
+		assertEquals(1, ready.get(1).intValue());
+		assertEquals(2, complete[0].getMedias().size());
+		nc.release();
+	}
+
+	public void testProgressiveOfferOrderedOnThreads() throws Exception {
+		InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+				MediaType.AUDIO, MediaType.VIDEO);
+		nc.setCallbackDispatcher(new CallbackDispatcher() {
+
+			@Override
+			public void dispatch(Runnable callback) {
+				new Thread(callback).start();
+			}
+		});
+		final List<Integer> events = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(1);
+
+		nc.generateSessionSpecOffer(new NetworkConnection.ProgressiveContinuation() {
+
+			@Override
+			public void onMediaReady(SessionSpec partial, int index) {
+				events.add(index);
+				// Give the final notification a chance to overtake
+				Thread.yield();
+			}
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				events.add(-1);
+				done.countDown();
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0, 1, -1), events);
+		nc.release();
+	}
+
+	public void testProgressiveOfferAfterFailedCallback() throws Exception {
+		InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+				MediaType.AUDIO, MediaType.VIDEO);
+		final List<Runnable> submitted = new ArrayList<Runnable>();
+		nc.setCallbackDispatcher(new CallbackDispatcher() {
+
+			@Override
+			public void dispatch(Runnable callback) {
+				if (!submitted.isEmpty()) {
+					throw new IllegalStateException("Dispatcher is full");
+				}
+				submitted.add(callback);
+			}
+		});
+		final List<Integer> events = new ArrayList<Integer>();
+
+		nc.generateSessionSpecOffer(new NetworkConnection.ProgressiveContinuation() {
+
+			@Override
+			public void onMediaReady(SessionSpec partial, int index) {
+				events.add(index);
+				if (index == 0) {
+					throw new RuntimeException("Failed callback");
+				}
+			}
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				events.add(-1);
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				fail("Error generating offer: " + cause.getMessage());
+			}
+		});
+
+		assertEquals(1, submitted.size());
+		try {
+			submitted.get(0).run();
+			fail("The callback failure should be propagated");
+		} catch (RuntimeException e) {
+			assertEquals("Failed callback", e.getMessage());
+		}
+		assertEquals(Arrays.asList(0, 1, -1), events);
+		nc.release();
+	}
+}
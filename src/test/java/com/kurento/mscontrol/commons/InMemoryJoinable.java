@@ -0,0 +1,137 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Joinable of the in-memory media engine.
+ * <p>
+ * It has one {@link InMemoryMediaSrc} and one {@link InMemoryMediaSink} per
+ * MediaType given on creation. It moves frames between Joinables of the same
+ * process, which makes it a fast backend for tests and a baseline to measure
+ * the overhead of this API.
+ * </p>
+ */
+public class InMemoryJoinable extends Joinable {
+
+	private final List<MediaSrc> srcs;
+	private final List<MediaSink> sinks;
+
+	/**
+	 * Creates a Joinable with rings of the default size
+	 * 
+	 * @param types
+	 *            MediaTypes of the streams
+	 */
+	public InMemoryJoinable(MediaType... types) {
+		this(InMemoryMediaSink.DEFAULT_SLOTS,
+				InMemoryMediaSink.DEFAULT_SLOT_SIZE, types);
+	}
+
+	/**
+	 * Creates a Joinable
+	 * 
+	 * @param slots
+	 *            Number of frames queued by each sink
+	 * @param slotSize
+	 *            Maximum size of a frame
+	 * @param types
+	 *            MediaTypes of the streams
+	 */
+	public InMemoryJoinable(int slots, int slotSize, MediaType... types) {
+		List<MediaSrc> srcs = new ArrayList<MediaSrc>(types.length);
+		List<MediaSink> sinks = new ArrayList<MediaSink>(types.length);
+		for (MediaType type : types) {
+			srcs.add(new InMemoryMediaSrc(this, type));
+			sinks.add(new InMemoryMediaSink(this, type, slots, slotSize));
+		}
+		this.srcs = Collections.unmodifiableList(srcs);
+		this.sinks = Collections.unmodifiableList(sinks);
+	}
+
+	@Override
+	public Collection<MediaSrc> getMediaSrcs() {
+		return srcs;
+	}
+
+	@Override
+	public Collection<MediaSink> getMediaSinks() {
+		return sinks;
+	}
+
+	/**
+	 * Returns the source of the given MediaType
+	 * 
+	 * @param type
+	 *            A MediaType
+	 * @return The MediaSrc or null if this object has none of that type
+	 */
+	public InMemoryMediaSrc getMediaSrc(MediaType type) {
+		return findSrc(srcs, type);
+	}
+
+	/**
+	 * Returns the sink of the given MediaType
+	 * 
+	 * @param type
+	 *            A MediaType
+	 * @return The MediaSink or null if this object has none of that type
+	 */
+	public InMemoryMediaSink getMediaSink(MediaType type) {
+		return findSink(sinks, type);
+	}
+
+	/**
+	 * Unjoins this object and releases its streams
+	 */
+	public void release() {
+		try {
+			unjoinAll();
+		} catch (MediaException e) {
+			// In-memory disconnections do not fail
+		}
+		for (MediaSrc src : srcs) {
+			src.release();
+		}
+		for (MediaSink sink : sinks) {
+			sink.release();
+		}
+	}
+
+	static InMemoryMediaSrc findSrc(List<MediaSrc> srcs, MediaType type) {
+		for (MediaSrc src : srcs) {
+			if (src.getMediaType().equals(type)) {
+				return (InMemoryMediaSrc) src;
+			}
+		}
+		return null;
+	}
+
+	static InMemoryMediaSink findSink(List<MediaSink> sinks, MediaType type) {
+		for (MediaSink sink : sinks) {
+			if (sink.getMediaType().equals(type)) {
+				return (InMemoryMediaSink) sink;
+			}
+		}
+		return null;
+	}
+}
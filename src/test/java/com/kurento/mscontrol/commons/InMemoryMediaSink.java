@@ -0,0 +1,162 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.server.StreamLifecycle;
+
+/**
+ * MediaSink of the in-memory media engine.
+ * <p>
+ * Frames sent by the connected {@link InMemoryMediaSrc} are queued in a
+ * preallocated ring until they are read. Frames arriving while the sink is
+ * stopped or its ring is full are dropped.
+ * </p>
+ */
+public class InMemoryMediaSink implements MediaSink {
+
+	/**
+	 * Default number of frames queued by a sink
+	 */
+	public static final int DEFAULT_SLOTS = 64;
+
+	/**
+	 * Default maximum frame size, in bytes
+	 */
+	public static final int DEFAULT_SLOT_SIZE = 1500;
+
+	private final Joinable joinable;
+	private final MediaType type;
+	private final FrameRing ring;
+
+	private volatile InMemoryMediaSrc connectedSrc;
+	private final StreamLifecycle lifecycle = new StreamLifecycle(
+			StreamLifecycle.State.STARTED);
+
+	InMemoryMediaSink(Joinable joinable, MediaType type, int slots,
+			int slotSize) {
+		this.joinable = joinable;
+		this.type = type;
+		this.ring = new FrameRing(slots, slotSize);
+	}
+
+	@Override
+	public Joinable getJoinable() {
+		return joinable;
+	}
+
+	@Override
+	public MediaType getMediaType() {
+		return type;
+	}
+
+	@Override
+	public void start() throws MediaException {
+		lifecycle.start();
+	}
+
+	@Override
+	public void stop() {
+		lifecycle.stop();
+	}
+
+	@Override
+	public void release() {
+		if (lifecycle.release() == null) {
+			return;
+		}
+
+		InMemoryMediaSrc src = connectedSrc;
+		if (src != null) {
+			src.disconnect(this);
+		}
+	}
+
+	@Override
+	public MediaSrc getConnectedSrc() {
+		return connectedSrc;
+	}
+
+	/**
+	 * Copies the oldest received frame into <code>buffer</code>
+	 * 
+	 * @param buffer
+	 *            Destination buffer, large enough for the biggest frame
+	 * @param offset
+	 *            Position of the frame in <code>buffer</code>
+	 * @return The length of the frame or -1 if there is no frame to read
+	 */
+	public int read(byte[] buffer, int offset) {
+		return ring.read(buffer, offset);
+	}
+
+	/**
+	 * Returns the timestamp of the last frame read
+	 * 
+	 * @return The timestamp given to {@link InMemoryMediaSrc#write}
+	 */
+	public long getLastTimestamp() {
+		return ring.getLastTimestamp();
+	}
+
+	/**
+	 * Returns the number of frames waiting to be read
+	 * 
+	 * @return The number of queued frames
+	 */
+	public int getQueuedFrames() {
+		return ring.size();
+	}
+
+	/**
+	 * Returns the number of frames dropped because the ring was full or they
+	 * were too big
+	 * 
+	 * @return The number of dropped frames
+	 */
+	public long getDroppedFrames() {
+		return ring.getDropped();
+	}
+
+	boolean offer(InMemoryMediaSrc src, byte[] frame, int offset, int length,
+			long timestamp) {
+		if (!lifecycle.isStarted() || connectedSrc != src) {
+			return false;
+		}
+		return ring.write(frame, offset, length, timestamp);
+	}
+
+	/**
+	 * Links this sink to src, returning the previous source
+	 */
+	synchronized InMemoryMediaSrc attach(InMemoryMediaSrc src) {
+		lifecycle.checkNotReleased();
+		InMemoryMediaSrc previous = connectedSrc;
+		connectedSrc = src;
+		return previous;
+	}
+
+	/**
+	 * Unlinks this sink if it is linked to src
+	 */
+	synchronized boolean detach(InMemoryMediaSrc src) {
+		if (connectedSrc != src) {
+			return false;
+		}
+		connectedSrc = null;
+		return true;
+	}
+}
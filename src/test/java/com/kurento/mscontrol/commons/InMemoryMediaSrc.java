@@ -0,0 +1,166 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.server.StreamLifecycle;
+
+/**
+ * MediaSrc of the in-memory media engine.
+ * <p>
+ * Frames written to the source are copied into the ring of every connected
+ * {@link InMemoryMediaSink}, without allocating. The list of sinks is copied
+ * on connection changes so that writers never lock.
+ * </p>
+ */
+public class InMemoryMediaSrc implements MediaSrc {
+
+	private static final InMemoryMediaSink[] NO_SINKS = new InMemoryMediaSink[0];
+
+	private final Joinable joinable;
+	private final MediaType type;
+
+	private volatile InMemoryMediaSink[] sinks = NO_SINKS;
+	private final StreamLifecycle lifecycle = new StreamLifecycle(
+			StreamLifecycle.State.STARTED);
+
+	InMemoryMediaSrc(Joinable joinable, MediaType type) {
+		this.joinable = joinable;
+		this.type = type;
+	}
+
+	@Override
+	public Joinable getJoinable() {
+		return joinable;
+	}
+
+	@Override
+	public MediaType getMediaType() {
+		return type;
+	}
+
+	@Override
+	public void start() throws MediaException {
+		lifecycle.start();
+	}
+
+	@Override
+	public void stop() {
+		lifecycle.stop();
+	}
+
+	@Override
+	public void release() {
+		if (lifecycle.release() == null) {
+			return;
+		}
+
+		for (InMemoryMediaSink sink : sinks) {
+			disconnect(sink);
+		}
+	}
+
+	@Override
+	public void connect(MediaSink sink) throws MediaException {
+		if (!(sink instanceof InMemoryMediaSink)) {
+			throw new MediaException(
+					"In-memory sources can only be connected to in-memory sinks");
+		}
+		if (!type.equals(sink.getMediaType())) {
+			throw new MediaException("Cannot connect a source of " + type
+					+ " to a sink of " + sink.getMediaType());
+		}
+		lifecycle.checkNotReleased();
+
+		InMemoryMediaSink target = (InMemoryMediaSink) sink;
+		InMemoryMediaSrc previous = target.attach(this);
+		if (previous != this) {
+			if (previous != null) {
+				previous.removeSink(target);
+			}
+			addSink(target);
+		}
+		joinable.connected(this, target);
+	}
+
+	@Override
+	public void disconnect(MediaSink sink) {
+		if (!(sink instanceof InMemoryMediaSink)) {
+			return;
+		}
+
+		InMemoryMediaSink target = (InMemoryMediaSink) sink;
+		if (target.detach(this)) {
+			removeSink(target);
+		}
+		joinable.disconnected(this, target);
+	}
+
+	/**
+	 * Sends a frame to every connected sink
+	 * 
+	 * @param frame
+	 *            Buffer holding the frame
+	 * @param offset
+	 *            Position of the frame in <code>frame</code>
+	 * @param length
+	 *            Length of the frame
+	 * @param timestamp
+	 *            Timestamp of the frame, returned to the readers
+	 * @return The number of sinks that have queued the frame
+	 */
+	public int write(byte[] frame, int offset, int length, long timestamp) {
+		if (!lifecycle.isStarted()) {
+			return 0;
+		}
+
+		int delivered = 0;
+		for (InMemoryMediaSink sink : sinks) {
+			if (sink.offer(this, frame, offset, length, timestamp)) {
+				delivered++;
+			}
+		}
+		return delivered;
+	}
+
+	private synchronized void addSink(InMemoryMediaSink sink) {
+		InMemoryMediaSink[] current = sinks;
+		for (InMemoryMediaSink s : current) {
+			if (s == sink) {
+				return;
+			}
+		}
+
+		InMemoryMediaSink[] updated = new InMemoryMediaSink[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = sink;
+		sinks = updated;
+	}
+
+	private synchronized void removeSink(InMemoryMediaSink sink) {
+		InMemoryMediaSink[] current = sinks;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == sink) {
+				InMemoryMediaSink[] updated = new InMemoryMediaSink[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, updated.length
+						- i);
+				sinks = updated;
+				return;
+			}
+		}
+	}
+}
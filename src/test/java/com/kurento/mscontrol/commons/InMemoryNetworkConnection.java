@@ -0,0 +1,550 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.kurento.mediaspec.MediaSpec;
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.Payload;
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.LatencyRecorder.Operation;
+import com.kurento.mscontrol.commons.LatencyRecorder.Outcome;
+import com.kurento.mscontrol.commons.server.LeakDetector;
+import com.kurento.mscontrol.commons.server.PortRange;
+
+/**
+ * NetworkConnection of the in-memory media engine.
+ * <p>
+ * It negotiates like a media server would, but without any network port:
+ * offers have one MediaSpec per MediaType given on creation, in the same
+ * order, and every operation completes before returning, dispatching its
+ * Continuation to the callback dispatcher. A {@link ProgressiveContinuation}
+ * is notified of each MediaSpec, in order, before the complete SessionSpec.
+ * Its streams move frames like those of {@link InMemoryJoinable}, whatever
+ * the negotiation state.
+ * </p>
+ * <p>
+ * Once established, a connection can be renegotiated from either side.
+ * Streams and joins are kept, and the answer to a new remote offer only
+ * changes the MediaSpecs that differ from the previous one. Generating a
+ * second offer before the first is answered, or processing an offer while
+ * waiting for an answer, fails as if the media server had no resources
+ * left. Releasing it unjoins it and drops the negotiated SessionSpecs, after
+ * which it may negotiate again. It can also be recycled.
+ * </p>
+ * <p>
+ * A connection created with a {@link PortRange} takes one allocation per
+ * MediaType when it first negotiates, and returns them when released. In
+ * lazy mode its allocations stay reserved until an answer is processed or
+ * the connection is confirmed; otherwise they are bound at once. If the range
+ * has no sockets left, binding fails like any other lack of resources, and
+ * the allocations stay reserved. Recycling keeps them bound.
+ * </p>
+ * <p>
+ * Connections are tracked by the default {@link LeakDetector} from their
+ * first negotiation until they are released.
+ * </p>
+ * <p>
+ * If a {@link LatencyRecorder} is set, negotiation operations are timed up
+ * to the dispatch of their Continuation, so the time spent by the callback
+ * executor is not included.
+ * </p>
+ */
+public class InMemoryNetworkConnection extends NetworkConnection {
+
+	private enum State {
+		IDLE, OFFER_GENERATED, ESTABLISHED, RELEASED
+	}
+
+	private final MediaType[] types;
+	private final List<MediaSrc> srcs;
+	private final List<MediaSink> sinks;
+
+	private State state = State.IDLE;
+	private SessionSpec localSpec;
+	private SessionSpec remoteSpec;
+
+	private final PortRange ports;
+	private final boolean lazy;
+	private int[] allocated;
+	private boolean bound;
+
+	/**
+	 * Tracks the connection from its first negotiation to its release
+	 */
+	private LeakDetector.Tracker tracker;
+
+	/**
+	 * Creates a NetworkConnection with rings of the default size
+	 * 
+	 * @param types
+	 *            MediaTypes of the streams, in offer order
+	 */
+	public InMemoryNetworkConnection(MediaType... types) {
+		this(InMemoryMediaSink.DEFAULT_SLOTS,
+				InMemoryMediaSink.DEFAULT_SLOT_SIZE, types);
+	}
+
+	/**
+	 * Creates a NetworkConnection
+	 * 
+	 * @param slots
+	 *            Number of frames queued by each sink
+	 * @param slotSize
+	 *            Maximum size of a frame
+	 * @param types
+	 *            MediaTypes of the streams, in offer order
+	 */
+	public InMemoryNetworkConnection(int slots, int slotSize,
+			MediaType... types) {
+		this(null, false, slots, slotSize, types);
+	}
+
+	/**
+	 * Creates a NetworkConnection taking its ports from a range
+	 * 
+	 * @param ports
+	 *            Range of the ports
+	 * @param lazy
+	 *            Whether to keep the ports reserved until the negotiation is
+	 *            answered or confirmed
+	 * @param types
+	 *            MediaTypes of the streams, in offer order
+	 */
+	public InMemoryNetworkConnection(PortRange ports, boolean lazy,
+			MediaType... types) {
+		this(ports, lazy, InMemoryMediaSink.DEFAULT_SLOTS,
+				InMemoryMediaSink.DEFAULT_SLOT_SIZE, types);
+	}
+
+	private InMemoryNetworkConnection(PortRange ports, boolean lazy,
+			int slots, int slotSize, MediaType... types) {
+		this.ports = ports;
+		this.lazy = lazy;
+		this.types = types.clone();
+		List<MediaSrc> srcs = new ArrayList<MediaSrc>(types.length);
+		List<MediaSink> sinks = new ArrayList<MediaSink>(types.length);
+		for (MediaType type : types) {
+			srcs.add(new InMemoryMediaSrc(this, type));
+			sinks.add(new InMemoryMediaSink(this, type, slots, slotSize));
+		}
+		this.srcs = Collections.unmodifiableList(srcs);
+		this.sinks = Collections.unmodifiableList(sinks);
+	}
+
+	@Override
+	public Collection<MediaSrc> getMediaSrcs() {
+		return srcs;
+	}
+
+	@Override
+	public Collection<MediaSink> getMediaSinks() {
+		return sinks;
+	}
+
+	/**
+	 * Returns the source of the given MediaType
+	 * 
+	 * @param type
+	 *            A MediaType
+	 * @return The MediaSrc or null if this object has none of that type
+	 */
+	public InMemoryMediaSrc getMediaSrc(MediaType type) {
+		return InMemoryJoinable.findSrc(srcs, type);
+	}
+
+	/**
+	 * Returns the sink of the given MediaType
+	 * 
+	 * @param type
+	 *            A MediaType
+	 * @return The MediaSink or null if this object has none of that type
+	 */
+	public InMemoryMediaSink getMediaSink(MediaType type) {
+		return InMemoryJoinable.findSink(sinks, type);
+	}
+
+	/**
+	 * @return The RTP ports of this connection, one per MediaType, or an
+	 *         empty array if it has none
+	 */
+	public synchronized int[] getPorts() {
+		return allocated == null ? new int[0] : allocated.clone();
+	}
+
+	/**
+	 * @return true if the ports of this connection are bound
+	 */
+	public synchronized boolean isBound() {
+		return bound;
+	}
+
+	@Override
+	public void release() {
+		synchronized (this) {
+			if (state == State.RELEASED) {
+				return;
+			}
+			state = State.RELEASED;
+			localSpec = null;
+			remoteSpec = null;
+			freePorts();
+			if (tracker != null) {
+				tracker.released();
+				tracker = null;
+			}
+		}
+		try {
+			unjoinAll();
+		} catch (MediaException e) {
+			// In-memory disconnections do not fail
+		}
+	}
+
+	@Override
+	protected synchronized boolean reset() {
+		state = State.IDLE;
+		localSpec = null;
+		remoteSpec = null;
+		return true;
+	}
+
+	@Override
+	public synchronized void confirm() throws MediaException {
+		long start = startTiming();
+		if (state == State.RELEASED) {
+			recordLatency(Operation.CONFIRM, Outcome.EXCEPTION, start);
+			throw new IllegalStateException(
+					"NetworkConnection has been released");
+		}
+		try {
+			bindPorts();
+		} catch (MediaException e) {
+			recordLatency(Operation.CONFIRM, Outcome.EXCEPTION, start);
+			throw e;
+		}
+		recordLatency(Operation.CONFIRM, Outcome.SUCCESS, start);
+	}
+
+	@Override
+	public void generateSessionSpecOffer(Continuation cont) {
+		long start = startTiming();
+		SessionSpec offer = null;
+		MediaException error = null;
+
+		synchronized (this) {
+			if (state == State.ESTABLISHED) {
+				offer = createReoffer();
+				localSpec = offer;
+				state = State.OFFER_GENERATED;
+			} else if (!canNegotiate()) {
+				error = new MediaException(
+						"No resources available to generate an offer");
+			} else {
+				try {
+					allocate();
+					offer = createOffer();
+					localSpec = offer;
+					state = State.OFFER_GENERATED;
+				} catch (MediaException e) {
+					error = e;
+				}
+			}
+		}
+
+		if (error != null) {
+			recordLatency(Operation.GENERATE_OFFER, Outcome.ERROR, start);
+			dispatchError(cont, error);
+		} else {
+			recordLatency(Operation.GENERATE_OFFER, Outcome.SUCCESS, start);
+			dispatchProgress(cont, offer);
+			dispatchSuccess(cont, offer);
+		}
+	}
+
+	@Override
+	public void processSessionSpecOffer(SessionSpec offer, Continuation cont) {
+		long start = startTiming();
+		if (!isAcceptable(offer)) {
+			recordLatency(Operation.PROCESS_OFFER, Outcome.ERROR, start);
+			dispatchError(cont, new MediaException("Offer not acceptable"));
+			return;
+		}
+
+		SessionSpec answer = null;
+		MediaException error = null;
+		synchronized (this) {
+			if (state == State.ESTABLISHED) {
+				answer = createReanswer(offer);
+				localSpec = answer;
+				remoteSpec = offer;
+			} else if (!canNegotiate()) {
+				error = new MediaException(
+						"No resources available to process an offer");
+			} else {
+				try {
+					allocate();
+					answer = createAnswer(offer);
+					localSpec = answer;
+					remoteSpec = offer;
+					state = State.ESTABLISHED;
+				} catch (MediaException e) {
+					error = e;
+				}
+			}
+		}
+
+		if (error != null) {
+			recordLatency(Operation.PROCESS_OFFER, Outcome.ERROR, start);
+			dispatchError(cont, error);
+		} else {
+			recordLatency(Operation.PROCESS_OFFER, Outcome.SUCCESS, start);
+			dispatchProgress(cont, answer);
+			dispatchSuccess(cont, answer);
+		}
+	}
+
+	@Override
+	public void processSessionSpecAnswer(SessionSpec answer, Continuation cont) {
+		long start = startTiming();
+		if (!isAcceptable(answer)) {
+			recordLatency(Operation.PROCESS_ANSWER, Outcome.ERROR, start);
+			dispatchError(cont, new MediaException("Answer not acceptable"));
+			return;
+		}
+
+		SessionSpec local;
+		MediaException error = null;
+		synchronized (this) {
+			if (state != State.OFFER_GENERATED) {
+				local = null;
+			} else {
+				local = localSpec;
+				try {
+					bindPorts();
+					remoteSpec = answer;
+					state = State.ESTABLISHED;
+				} catch (MediaException e) {
+					error = e;
+				}
+			}
+		}
+
+		if (local == null) {
+			recordLatency(Operation.PROCESS_ANSWER, Outcome.ERROR, start);
+			dispatchError(cont, new MediaException(
+					"No offer waiting for an answer"));
+		} else if (error != null) {
+			recordLatency(Operation.PROCESS_ANSWER, Outcome.ERROR, start);
+			dispatchError(cont, error);
+		} else {
+			recordLatency(Operation.PROCESS_ANSWER, Outcome.SUCCESS, start);
+			dispatchSuccess(cont, local);
+		}
+	}
+
+	@Override
+	public synchronized SessionSpec getSessionSpec() {
+		return localSpec;
+	}
+
+	@Override
+	public synchronized SessionSpec getRemoteSessionSpec() {
+		return remoteSpec;
+	}
+
+	/**
+	 * Notifies each MediaSpec of spec in order, for progressive Continuations
+	 */
+	private void dispatchProgress(Continuation cont, SessionSpec spec) {
+		if (!(cont instanceof ProgressiveContinuation)) {
+			return;
+		}
+
+		List<MediaSpec> medias = spec.getMedias();
+		for (int i = 0; i < medias.size(); i++) {
+			SessionSpec partial = new SessionSpec();
+			partial.setMedias(new ArrayList<MediaSpec>(medias
+					.subList(0, i + 1)));
+			dispatchPartial(cont, partial, i);
+		}
+	}
+
+	private void allocate() throws MediaException {
+		allocatePorts();
+		if (tracker == null) {
+			tracker = LeakDetector.getDefault().track(this);
+		}
+	}
+
+	private void allocatePorts() throws MediaException {
+		if (ports == null || allocated != null) {
+			return;
+		}
+
+		int[] reserved = new int[types.length];
+		int count = 0;
+		try {
+			for (; count < reserved.length; count++) {
+				reserved[count] = ports.reserve();
+			}
+		} catch (MediaException e) {
+			for (int i = 0; i < count; i++) {
+				ports.free(reserved[i]);
+			}
+			throw e;
+		}
+
+		allocated = reserved;
+		if (!lazy) {
+			try {
+				bindPorts();
+			} catch (MediaException e) {
+				freePorts();
+				throw e;
+			}
+		}
+	}
+
+	private void bindPorts() throws MediaException {
+		if (allocated == null || bound) {
+			return;
+		}
+		int count = 0;
+		try {
+			for (; count < allocated.length; count++) {
+				ports.bind(allocated[count]);
+			}
+		} catch (MediaException e) {
+			for (int i = 0; i < count; i++) {
+				ports.unbind(allocated[i]);
+			}
+			throw e;
+		}
+		bound = true;
+	}
+
+	private void freePorts() {
+		if (allocated == null) {
+			return;
+		}
+		for (int port : allocated) {
+			ports.free(port);
+		}
+		allocated = null;
+		bound = false;
+	}
+
+	private boolean canNegotiate() {
+		return state == State.IDLE || state == State.RELEASED;
+	}
+
+	private SessionSpec createOffer() {
+		List<MediaSpec> medias = new ArrayList<MediaSpec>(types.length);
+		for (int i = 0; i < types.length; i++) {
+			List<Payload> payloads = new ArrayList<Payload>(1);
+			payloads.add(new Payload());
+			MediaSpec media = new MediaSpec();
+			media.setPayloads(payloads);
+			medias.add(media);
+		}
+
+		SessionSpec offer = new SessionSpec();
+		offer.setMedias(medias);
+		return offer;
+	}
+
+	/**
+	 * Offers the current local media again, re-enabling the rejected ones
+	 */
+	private SessionSpec createReoffer() {
+		SessionSpec offer = createOffer();
+		List<MediaSpec> current = localSpec.getMedias();
+		List<MediaSpec> medias = offer.getMedias();
+		for (int i = 0; i < medias.size() && i < current.size(); i++) {
+			List<Payload> payloads = current.get(i).getPayloads();
+			if (payloads != null && !payloads.isEmpty()) {
+				medias.set(i, current.get(i).deepCopy());
+			}
+		}
+		return offer;
+	}
+
+	/**
+	 * Accepts the offered payloads of the first MediaSpecs, one per MediaType
+	 * of this connection, and rejects the rest with an empty payload list
+	 */
+	private SessionSpec createAnswer(SessionSpec offer) {
+		List<MediaSpec> offered = offer.getMedias();
+		List<MediaSpec> medias = new ArrayList<MediaSpec>(offered.size());
+		for (int i = 0; i < offered.size(); i++) {
+			medias.add(answerMedia(i, offered.get(i)));
+		}
+
+		SessionSpec answer = new SessionSpec();
+		answer.setMedias(medias);
+		return answer;
+	}
+
+	/**
+	 * Answers a renegotiation, keeping the answer of the unchanged media
+	 */
+	private SessionSpec createReanswer(SessionSpec offer) {
+		SessionSpecDiff diff = SessionSpecDiff.compare(remoteSpec, offer);
+		List<MediaSpec> offered = offer.getMedias();
+		List<MediaSpec> current = localSpec.getMedias();
+		List<MediaSpec> medias = new ArrayList<MediaSpec>(offered.size());
+		for (int i = 0; i < offered.size(); i++) {
+			if (diff.getChange(i) == SessionSpecDiff.Change.UNCHANGED
+					&& i < current.size()) {
+				medias.add(current.get(i));
+			} else {
+				medias.add(answerMedia(i, offered.get(i)));
+			}
+		}
+
+		SessionSpec answer = new SessionSpec();
+		answer.setMedias(medias);
+		return answer;
+	}
+
+	private MediaSpec answerMedia(int index, MediaSpec offered) {
+		List<Payload> payloads = offered.getPayloads();
+		MediaSpec media = new MediaSpec();
+		if (index < types.length && payloads != null) {
+			media.setPayloads(new ArrayList<Payload>(payloads));
+		} else {
+			media.setPayloads(new ArrayList<Payload>());
+		}
+		return media;
+	}
+
+	private static boolean isAcceptable(SessionSpec spec) {
+		if (spec == null || spec.getMedias() == null) {
+			return false;
+		}
+		for (MediaSpec media : spec.getMedias()) {
+			if (media.getPayloads() != null && !media.getPayloads().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+
+public class JoinableTest extends TestCase {
+
+	public void testJoinConnectsSameMediaType() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+
+		a.join(b);
+
+		assertSame(a.getSrc(MediaType.AUDIO),
+				b.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertSame(b.getSrc(MediaType.AUDIO),
+				a.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(a.getSink(MediaType.VIDEO).getConnectedSrc());
+	}
+
+	public void testJoinWithoutCommonMediaTypeFails() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.VIDEO);
+
+		try {
+			a.join(b);
+			fail("Join without common MediaType should fail");
+		} catch (MediaException e) {
+		}
+	}
+
+	public void testStreamsChangedRebuildsIndex() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+
+		a.join(b);
+		a.addStreams(MediaType.VIDEO);
+		a.join(b);
+
+		assertSame(b.getSrc(MediaType.VIDEO),
+				a.getSink(MediaType.VIDEO).getConnectedSrc());
+	}
+
+	public void testStreamsAddedWithoutNoticeAreIndexed() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+
+		a.join(b);
+		MediaSink video = new MockMediaSink(a, MediaType.VIDEO);
+		a.getMediaSinks().add(video);
+		a.join(b);
+
+		assertSame(b.getSrc(MediaType.VIDEO), video.getConnectedSrc());
+	}
+
+	public void testJoinPlanIsSharedBetweenLayouts() throws Exception {
+		MockJoinable a1 = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+		MockJoinable a2 = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+		MockJoinable b1 = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b2 = new MockJoinable(MediaType.AUDIO);
+
+		StreamLayout layoutA = a1.getStreamIndex().getLayout();
+		StreamLayout layoutB = b1.getStreamIndex().getLayout();
+		assertSame(layoutA, a2.getStreamIndex().getLayout());
+		assertSame(layoutB, b2.getStreamIndex().getLayout());
+
+		a1.join(b1);
+		a2.join(b2);
+
+		assertSame(layoutA.getPlan(layoutB), layoutA.getPlan(layoutB));
+		assertSame(a2.getSrc(MediaType.AUDIO),
+				b2.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertSame(b2.getSrc(MediaType.AUDIO),
+				a2.getSink(MediaType.AUDIO).getConnectedSrc());
+	}
+
+	public void testJoinWithSeveralStreamsOfSameType() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO,
+				MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+
+		a.join(b);
+
+		// Every source is linked in turn, the last one remains
+		assertEquals(2, a.connectCalls);
+		MediaSrc last = a.getMediaSrcs().toArray(new MediaSrc[0])[2];
+		assertSame(last, b.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertEquals(2, b.connectCalls);
+	}
+
+	public void testJoinAllMatchesSequentialJoins() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+		MockJoinable c = new MockJoinable(MediaType.AUDIO);
+
+		a.joinAll(Arrays.asList(b, c));
+
+		assertSame(a.getSrc(MediaType.AUDIO),
+				b.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertSame(a.getSrc(MediaType.AUDIO),
+				c.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertSame(a.getSrc(MediaType.VIDEO),
+				b.getSink(MediaType.VIDEO).getConnectedSrc());
+		assertSame(c.getSrc(MediaType.AUDIO),
+				a.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertSame(b.getSrc(MediaType.VIDEO),
+				a.getSink(MediaType.VIDEO).getConnectedSrc());
+	}
+
+	public void testJoinAllBatchesPerMediaSrc() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		List<MockJoinable> others = Arrays.asList(new MockJoinable(
+				MediaType.AUDIO), new MockJoinable(MediaType.AUDIO),
+				new MockJoinable(MediaType.AUDIO));
+
+		a.joinAll(others);
+
+		assertEquals(1, a.batchConnectCalls);
+		assertEquals(3, a.connectCalls);
+	}
+
+	public void testJoinAllRollsBackOnFailure() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		MockJoinable c = new MockJoinable(MediaType.VIDEO);
+
+		try {
+			a.joinAll(Arrays.asList(b, c));
+			fail("joinAll with a non joinable peer should fail");
+		} catch (MediaException e) {
+		}
+
+		assertNull(b.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(a.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(c.getSink(MediaType.VIDEO).getConnectedSrc());
+		assertTrue(a.getJoinees().isEmpty());
+		assertTrue(b.getJoinees().isEmpty());
+		assertTrue(c.getJoinees().isEmpty());
+	}
+
+	public void testUnjoinAll() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		MockJoinable c = new MockJoinable(MediaType.AUDIO);
+
+		a.joinAll(Arrays.asList(b, c));
+		a.unjoinAll(Arrays.asList(b, c));
+
+		assertNull(a.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(b.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(c.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertEquals(1, a.batchDisconnectCalls);
+		assertEquals(1, c.batchDisconnectCalls);
+	}
+
+	public void testUnjoinOnlyRemovesLinksWithPeer() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		MockJoinable c = new MockJoinable(MediaType.AUDIO);
+
+		a.join(b);
+		a.join(c);
+		a.unjoin(c);
+
+		assertSame(a.getSrc(MediaType.AUDIO),
+				b.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(c.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(a.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertEquals(1, a.getJoinees().size());
+		assertTrue(a.getJoinees().contains(b));
+	}
+
+	public void testConnectedSinks() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		MockJoinable c = new MockJoinable(MediaType.AUDIO);
+
+		a.joinAll(Arrays.asList(b, c));
+
+		MediaSrc src = a.getSrc(MediaType.AUDIO);
+		assertEquals(2, a.getConnectedSinks(src).size());
+		assertTrue(a.getConnectedSinks(src).contains(
+				c.getSink(MediaType.AUDIO)));
+
+		// c replaced b as the source of a's sink
+		assertEquals(0, b.getConnectedSinks(b.getSrc(MediaType.AUDIO))
+				.size());
+		assertEquals(1, c.getConnectedSinks(c.getSrc(MediaType.AUDIO))
+				.size());
+	}
+
+	public void testUnjoinAllPeers() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO, MediaType.VIDEO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		MockJoinable c = new MockJoinable(MediaType.VIDEO);
+
+		a.join(b);
+		a.join(c);
+		a.unjoinAll();
+
+		assertTrue(a.getJoinees().isEmpty());
+		assertTrue(b.getJoinees().isEmpty());
+		assertNull(b.getSink(MediaType.AUDIO).getConnectedSrc());
+		assertNull(c.getSink(MediaType.VIDEO).getConnectedSrc());
+		assertNull(a.getSink(MediaType.VIDEO).getConnectedSrc());
+	}
+
+	private static class Result implements Joinable.JoinContinuation {
+
+		int successes;
+		List<Throwable> errors = new ArrayList<Throwable>();
+
+		@Override
+		public void onSucess() {
+			successes++;
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			errors.add(cause);
+		}
+	}
+
+	private static class DeferredJoinable extends MockJoinable {
+
+		final List<Joinable.JoinContinuation> requests = new ArrayList<Joinable.JoinContinuation>();
+
+		DeferredJoinable(MediaType... types) {
+			super(types);
+		}
+
+		@Override
+		protected void connectAsync(MediaSrc src, List<MediaSink> sinks,
+				JoinContinuation cont) {
+			try {
+				connect(src, sinks);
+			} catch (MediaException e) {
+				fail(e.getMessage());
+			}
+			requests.add(cont);
+		}
+	}
+
+	public void testJoinAsyncReportsOnceAllLinksComplete() throws Exception {
+		DeferredJoinable a = new DeferredJoinable(MediaType.AUDIO,
+				MediaType.VIDEO);
+		DeferredJoinable b = new DeferredJoinable(MediaType.AUDIO,
+				MediaType.VIDEO);
+		Result result = new Result();
+
+		a.joinAsync(b, result);
+
+		assertEquals(2, a.requests.size());
+		assertEquals(2, b.requests.size());
+		assertEquals(0, result.successes);
+
+		for (Joinable.JoinContinuation request : a.requests) {
+			request.onSucess();
+		}
+		b.requests.get(0).onSucess();
+		b.requests.get(1).onSucess();
+		b.requests.get(1).onSucess();
+		assertEquals(1, result.successes);
+		assertEquals(0, result.errors.size());
+		assertEquals(1, a.getJoinees().size());
+	}
+
+	public void testJoinAsyncReportsFirstError() throws Exception {
+		DeferredJoinable a = new DeferredJoinable(MediaType.AUDIO);
+		DeferredJoinable b = new DeferredJoinable(MediaType.AUDIO);
+		Result result = new Result();
+		MediaException cause = new MediaException("failed");
+
+		a.joinAsync(b, result);
+		a.requests.get(0).onError(cause);
+		b.requests.get(0).onSucess();
+
+		assertEquals(0, result.successes);
+		assertEquals(1, result.errors.size());
+		assertSame(cause, result.errors.get(0));
+	}
+
+	public void testUnjoinAsync() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		Result result = new Result();
+
+		a.join(b);
+		a.unjoinAsync(b, result);
+
+		assertEquals(1, result.successes);
+		assertTrue(a.getJoinees().isEmpty());
+		assertNull(b.getSink(MediaType.AUDIO).getConnectedSrc());
+	}
+
+	public void testConcurrentJoinsToSameJoinable() throws Exception {
+		final MockJoinable hub = new MockJoinable(MediaType.AUDIO);
+		final int threads = 8;
+		final int peersPerThread = 100;
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < peersPerThread; i++) {
+							MockJoinable peer = new MockJoinable(
+									MediaType.AUDIO);
+							hub.join(peer);
+							if (i % 2 == 0) {
+								hub.unjoin(peer);
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		assertTrue(errors.isEmpty());
+		assertEquals(threads * peersPerThread / 2, hub.getConnectedSinks(
+				hub.getSrc(MediaType.AUDIO)).size());
+		for (Joinable peer : hub.getJoinees()) {
+			assertTrue(peer.getJoinees().contains(hub));
+		}
+	}
+
+	public void testStaleConnectionIsNotRecorded() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		MockJoinable c = new MockJoinable(MediaType.AUDIO);
+		MediaSink sink = c.getSink(MediaType.AUDIO);
+
+		// a connects first but records its link after b replaced it
+		a.getSrc(MediaType.AUDIO).connect(sink);
+		b.link(b.getSrc(MediaType.AUDIO), sink);
+		a.connected(a.getSrc(MediaType.AUDIO), sink);
+
+		assertSame(b.getSrc(MediaType.AUDIO), sink.getConnectedSrc());
+		assertTrue(a.getJoinees().isEmpty());
+		assertEquals(1, b.getConnectedSinks(b.getSrc(MediaType.AUDIO))
+				.size());
+	}
+
+	public void testConcurrentConnectionsToSameSink() throws Exception {
+		final MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		final MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		MockJoinable c = new MockJoinable(MediaType.AUDIO);
+		final MediaSink sink = c.getSink(MediaType.AUDIO);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+
+		for (int round = 0; round < 500; round++) {
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] workers = new Thread[2];
+			for (int t = 0; t < workers.length; t++) {
+				final MockJoinable feeder = t == 0 ? a : b;
+				workers[t] = new Thread() {
+
+					@Override
+					public void run() {
+						try {
+							start.await();
+							MediaSrc src = feeder.getSrc(MediaType.AUDIO);
+							src.connect(sink);
+							// Widen the window between connect and record
+							Thread.yield();
+							feeder.connected(src, sink);
+						} catch (Throwable e) {
+							synchronized (errors) {
+								errors.add(e);
+							}
+						}
+					}
+				};
+				workers[t].start();
+			}
+			start.countDown();
+			for (Thread worker : workers) {
+				worker.join();
+			}
+
+			assertTrue(errors.isEmpty());
+			MediaSrc actual = sink.getConnectedSrc();
+			MockJoinable other = actual.getJoinable() == a ? b : a;
+			assertTrue(actual.getJoinable().getConnectedSinks(actual)
+					.contains(sink));
+			assertTrue(other.getConnectedSinks(other.getSrc(MediaType.AUDIO))
+					.isEmpty());
+			assertEquals(1, c.getJoinees().size());
+			assertTrue(c.getJoinees().contains(actual.getJoinable()));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+
+public class MediaTeeTest extends TestCase {
+
+	private static class MockMediaTee extends MediaTee {
+
+		private final MediaSink input = new MockMediaSink(this,
+				MediaType.VIDEO);
+		private final MediaSrc output = new MockMediaSrc(this, MediaType.VIDEO);
+
+		@Override
+		public MediaType getMediaType() {
+			return MediaType.VIDEO;
+		}
+
+		@Override
+		public MediaSink getInput() {
+			return input;
+		}
+
+		@Override
+		public MediaSrc getOutput() {
+			return output;
+		}
+
+		@Override
+		public void release() {
+		}
+	}
+
+	public void testDistribution() throws Exception {
+		MockMediaTee tee = new MockMediaTee();
+		MockJoinable presenter = new MockJoinable(MediaType.VIDEO);
+		MockJoinable[] viewers = new MockJoinable[100];
+
+		tee.setSource(presenter.getSrc(MediaType.VIDEO));
+		for (int i = 0; i < viewers.length; i++) {
+			viewers[i] = new MockJoinable(MediaType.VIDEO);
+			tee.addSink(viewers[i].getSink(MediaType.VIDEO));
+		}
+
+		assertSame(presenter.getSrc(MediaType.VIDEO), tee.getInput()
+				.getConnectedSrc());
+		assertEquals(100, tee.getSinkCount());
+		assertSame(tee.getOutput(), viewers[42].getSink(MediaType.VIDEO)
+				.getConnectedSrc());
+
+		tee.removeSink(viewers[42].getSink(MediaType.VIDEO));
+		assertEquals(99, tee.getSinkCount());
+		assertNull(viewers[42].getSink(MediaType.VIDEO).getConnectedSrc());
+	}
+
+	public void testStreamsAreStable() throws Exception {
+		MockMediaTee tee = new MockMediaTee();
+
+		assertSame(tee.getMediaSrcs(), tee.getMediaSrcs());
+		assertSame(tee.getMediaSinks(), tee.getMediaSinks());
+		assertSame(tee.getOutput(), tee.getMediaSrcs().iterator().next());
+		assertSame(tee.getInput(), tee.getMediaSinks().iterator().next());
+	}
+
+	public void testMediaTypeMismatch() throws Exception {
+		MockMediaTee tee = new MockMediaTee();
+		MockJoinable viewer = new MockJoinable(MediaType.AUDIO);
+
+		try {
+			tee.addSink(viewer.getSink(MediaType.AUDIO));
+			fail("Adding a sink of other MediaType should fail");
+		} catch (MediaException e) {
+		}
+		assertEquals(0, tee.getSinkCount());
+	}
+}
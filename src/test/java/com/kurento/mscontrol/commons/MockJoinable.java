@@ -0,0 +1,96 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.kurento.mediaspec.MediaType;
+
+/**
+ * Joinable whose streams only record their connections
+ */
+public class MockJoinable extends Joinable {
+
+	private final List<MediaSrc> srcs = new ArrayList<MediaSrc>();
+	private final List<MediaSink> sinks = new ArrayList<MediaSink>();
+
+	int connectCalls;
+	int batchConnectCalls;
+	int batchDisconnectCalls;
+
+	public MockJoinable(MediaType... types) {
+		for (MediaType type : types) {
+			addStreams(type);
+		}
+	}
+
+	public void addStreams(MediaType type) {
+		srcs.add(new MockMediaSrc(this, type));
+		sinks.add(new MockMediaSink(this, type));
+		streamsChanged();
+	}
+
+	public MediaSrc getSrc(MediaType type) {
+		for (MediaSrc src : srcs) {
+			if (src.getMediaType() == type) {
+				return src;
+			}
+		}
+		return null;
+	}
+
+	public MediaSink getSink(MediaType type) {
+		for (MediaSink sink : sinks) {
+			if (sink.getMediaType() == type) {
+				return sink;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Connects src to sink directly, as an application would
+	 */
+	public void link(MediaSrc src, MediaSink sink) throws MediaException {
+		src.connect(sink);
+		connected(src, sink);
+	}
+
+	@Override
+	public Collection<MediaSrc> getMediaSrcs() {
+		return srcs;
+	}
+
+	@Override
+	public Collection<MediaSink> getMediaSinks() {
+		return sinks;
+	}
+
+	@Override
+	protected void connect(MediaSrc src, List<MediaSink> sinks)
+			throws MediaException {
+		batchConnectCalls++;
+		super.connect(src, sinks);
+	}
+
+	@Override
+	protected void disconnect(MediaSrc src, List<MediaSink> sinks)
+			throws MediaException {
+		batchDisconnectCalls++;
+		super.disconnect(src, sinks);
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons;
+
+import com.kurento.mediaspec.MediaType;
+
+public class MockMediaSink implements MediaSink {
+
+	private final Joinable joinable;
+	private final MediaType type;
+
+	volatile MediaSrc connectedSrc;
+
+	public MockMediaSink(Joinable joinable, MediaType type) {
+		this.joinable = joinable;
+		this.type = type;
+	}
+
+	@Override
+	public Joinable getJoinable() {
+		return joinable;
+	}
+
+	@Override
+	public MediaType getMediaType() {
+		return type;
+	}
+
+	@Override
+	public void start() throws MediaException {
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public MediaSrc getConnectedSrc() {
+		return connectedSrc;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons;
+
+import com.kurento.mediaspec.MediaType;
+
+public class MockMediaSrc implements MediaSrc {
+
+	private final Joinable joinable;
+	private final MediaType type;
+
+	public MockMediaSrc(Joinable joinable, MediaType type) {
+		this.joinable = joinable;
+		this.type = type;
+	}
+
+	@Override
+	public Joinable getJoinable() {
+		return joinable;
+	}
+
+	@Override
+	public MediaType getMediaType() {
+		return type;
+	}
+
+	@Override
+	public void start() throws MediaException {
+	}
+
+	@Override
+	public void stop() {
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void connect(MediaSink sink) throws MediaException {
+		if (joinable instanceof MockJoinable) {
+			((MockJoinable) joinable).connectCalls++;
+		}
+		((MockMediaSink) sink).connectedSrc = this;
+	}
+
+	@Override
+	public void disconnect(MediaSink sink) throws MediaException {
+		MockMediaSink mock = (MockMediaSink) sink;
+		if (mock.connectedSrc == this) {
+			mock.connectedSrc = null;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaSpec;
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.Payload;
+import com.kurento.mediaspec.PayloadRtp;
+import com.kurento.mediaspec.SessionSpec;
+
+public class NegotiationCacheTest extends TestCase {
+
+	private static class CountingNegotiator implements
+			NegotiationCache.Negotiator {
+
+		int calls;
+
+		@Override
+		public SessionSpec negotiate(SessionSpec offer) throws MediaException {
+			calls++;
+			if (offer.getMedias().isEmpty()) {
+				throw new MediaException("Offer not acceptable");
+			}
+			return offer.deepCopy();
+		}
+	}
+
+	private static SessionSpec offer(int medias) {
+		List<MediaSpec> list = new ArrayList<MediaSpec>();
+		for (int i = 0; i < medias; i++) {
+			List<Payload> payloads = new ArrayList<Payload>();
+			payloads.add(new Payload());
+			MediaSpec media = new MediaSpec();
+			media.setPayloads(payloads);
+			list.add(media);
+		}
+		SessionSpec spec = new SessionSpec();
+		spec.setMedias(list);
+		return spec;
+	}
+
+	public void testHits() throws Exception {
+		NegotiationCache cache = new NegotiationCache(8);
+		CountingNegotiator negotiator = new CountingNegotiator();
+
+		SessionSpec first = cache.getAnswer(offer(2), negotiator);
+		SessionSpec second = cache.getAnswer(offer(2), negotiator);
+		assertEquals(1, negotiator.calls);
+		assertNotSame(first, second);
+		assertEquals(2, second.getMedias().size());
+
+		cache.getAnswer(offer(1), negotiator);
+		assertEquals(2, negotiator.calls);
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+	}
+
+	public void testRejectedOffersAreNotCached() throws Exception {
+		NegotiationCache cache = new NegotiationCache(8);
+		CountingNegotiator negotiator = new CountingNegotiator();
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				cache.getAnswer(offer(0), negotiator);
+				fail("Empty offer should be rejected");
+			} catch (MediaException e) {
+			}
+		}
+		assertEquals(2, negotiator.calls);
+		assertEquals(0, cache.size());
+	}
+
+	public void testBounded() throws Exception {
+		NegotiationCache cache = new NegotiationCache(2);
+		CountingNegotiator negotiator = new CountingNegotiator();
+
+		for (int i = 1; i <= 3; i++) {
+			cache.getAnswer(offer(i), negotiator);
+		}
+		assertEquals(2, cache.size());
+
+		cache.getAnswer(offer(1), negotiator);
+		assertEquals(4, negotiator.calls);
+	}
+
+	private static SessionSpec typedOffer(String[] params, MediaType... types) {
+		Map<String, String> extraParams = new LinkedHashMap<String, String>();
+		for (int i = 0; i < params.length; i += 2) {
+			extraParams.put(params[i], params[i + 1]);
+		}
+		PayloadRtp rtp = new PayloadRtp(96, "H264", 90000);
+		rtp.setExtraParams(extraParams);
+		Payload payload = new Payload();
+		payload.setRtp(rtp);
+		List<Payload> payloads = new ArrayList<Payload>();
+		payloads.add(payload);
+
+		Set<MediaType> typeSet = new LinkedHashSet<MediaType>();
+		for (MediaType type : types) {
+			typeSet.add(type);
+		}
+		MediaSpec media = new MediaSpec();
+		media.setPayloads(payloads);
+		media.setType(typeSet);
+		List<MediaSpec> medias = new ArrayList<MediaSpec>();
+		medias.add(media);
+		SessionSpec spec = new SessionSpec();
+		spec.setMedias(medias);
+		return spec;
+	}
+
+	public void testFingerprintIsCanonical() throws Exception {
+		String[] params = { "profile-level-id", "42e01f", "packetization-mode",
+				"1" };
+		String[] reordered = { "packetization-mode", "1", "profile-level-id",
+				"42e01f" };
+
+		assertEquals(NegotiationCache.fingerprint(typedOffer(params,
+				MediaType.AUDIO, MediaType.VIDEO)),
+				NegotiationCache.fingerprint(typedOffer(reordered,
+						MediaType.VIDEO, MediaType.AUDIO)));
+		assertFalse(NegotiationCache.fingerprint(
+				typedOffer(params, MediaType.VIDEO)).equals(
+				NegotiationCache.fingerprint(typedOffer(params,
+						MediaType.AUDIO))));
+		assertFalse(NegotiationCache.fingerprint(
+				typedOffer(params, MediaType.VIDEO)).equals(
+				NegotiationCache.fingerprint(typedOffer(new String[] {
+						"profile-level-id", "42e01f" }, MediaType.VIDEO))));
+	}
+
+	public void testOffersDifferingInTypesAreNotShared() throws Exception {
+		NegotiationCache cache = new NegotiationCache(8);
+		CountingNegotiator negotiator = new CountingNegotiator();
+		String[] params = {};
+
+		cache.getAnswer(typedOffer(params, MediaType.AUDIO), negotiator);
+		cache.getAnswer(typedOffer(params, MediaType.VIDEO), negotiator);
+		assertEquals(2, negotiator.calls);
+		assertEquals(0, cache.getHits());
+	}
+}
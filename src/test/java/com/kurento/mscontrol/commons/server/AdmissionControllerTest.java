@@ -0,0 +1,96 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+
+public class AdmissionControllerTest extends TestCase {
+
+	public void testFastFail() throws Exception {
+		AdmissionController controller = new AdmissionController(0);
+		controller.setCapacity(MediaType.VIDEO, 1);
+
+		AdmissionController.Permit call = controller.admit(MediaType.AUDIO,
+				MediaType.VIDEO);
+		assertEquals(1, controller.getReserved(MediaType.VIDEO));
+		call.use();
+		assertEquals(0, controller.getReserved(MediaType.VIDEO));
+		assertEquals(1, controller.getUsed(MediaType.VIDEO));
+
+		try {
+			controller.admit(MediaType.AUDIO, MediaType.VIDEO);
+			fail("Video capacity should be exhausted");
+		} catch (AdmissionException e) {
+			assertEquals(AdmissionException.Reason.CAPACITY_EXHAUSTED,
+					e.getReason());
+			assertEquals(MediaType.VIDEO, e.getMediaType());
+		}
+		assertEquals(0, controller.getReserved(MediaType.AUDIO));
+		controller.admit(MediaType.AUDIO).release();
+
+		call.release();
+		call.release();
+		assertEquals(0, controller.getUsed(MediaType.VIDEO));
+		controller.admit(MediaType.VIDEO);
+		assertEquals(1, controller.getRejected());
+		assertEquals(3, controller.getAdmitted());
+	}
+
+	public void testBoundedWait() throws Exception {
+		final AdmissionController controller = new AdmissionController(1);
+		controller.setCapacity(MediaType.AUDIO, 1);
+		final AdmissionController.Permit first = controller
+				.admit(MediaType.AUDIO);
+
+		try {
+			controller.admit(10, TimeUnit.MILLISECONDS, MediaType.AUDIO);
+			fail("Wait should expire");
+		} catch (AdmissionException e) {
+			assertEquals(AdmissionException.Reason.TIMEOUT, e.getReason());
+		}
+
+		Thread releaser = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					while (controller.getWaiting() == 0) {
+						Thread.sleep(1);
+					}
+					try {
+						controller.admit(1, TimeUnit.SECONDS,
+								MediaType.AUDIO);
+						fail("Queue should be full");
+					} catch (AdmissionException e) {
+						assertEquals(AdmissionException.Reason.QUEUE_FULL,
+								e.getReason());
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				first.release();
+			}
+		};
+		releaser.start();
+
+		assertNotNull(controller.admit(5, TimeUnit.SECONDS, MediaType.AUDIO));
+		releaser.join();
+		assertEquals(1, controller.getReserved(MediaType.AUDIO));
+	}
+}
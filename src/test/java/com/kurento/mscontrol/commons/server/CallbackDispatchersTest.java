@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.CallbackDispatcher;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+public class CallbackDispatchersTest extends TestCase {
+
+	public void testDefaultIsDirect() throws Exception {
+		InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		final Thread[] thread = new Thread[1];
+
+		nc.generateSessionSpecOffer(new NetworkConnection.Continuation() {
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				thread[0] = Thread.currentThread();
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				fail("Error generating offer: " + cause.getMessage());
+			}
+		});
+
+		assertSame(Thread.currentThread(), thread[0]);
+		nc.release();
+	}
+
+	public void testExecutorDispatcher() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		nc.setCallbackDispatcher(CallbackDispatchers.executor(pool));
+		final Thread[] thread = new Thread[1];
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		nc.generateSessionSpecOffer(new NetworkConnection.Continuation() {
+
+			@Override
+			public void onSucess(SessionSpec spec) {
+				thread[0] = Thread.currentThread();
+				latch.countDown();
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				fail("Error generating offer: " + cause.getMessage());
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertNotSame(Thread.currentThread(), thread[0]);
+		nc.release();
+		pool.shutdown();
+	}
+
+	public void testOrdered() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		CallbackDispatcher ordered = CallbackDispatchers.ordered(pool);
+		final List<Integer> delivered = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch latch = new CountDownLatch(1000);
+
+		for (int i = 0; i < 1000; i++) {
+			final int n = i;
+			ordered.dispatch(new Runnable() {
+
+				@Override
+				public void run() {
+					delivered.add(n);
+					latch.countDown();
+					if (n == 10) {
+						throw new RuntimeException("Failed callback");
+					}
+				}
+			});
+		}
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, delivered.get(i).intValue());
+		}
+		pool.shutdown();
+	}
+
+	public void testOrderedAfterRejection() throws Exception {
+		final List<Runnable> submitted = new ArrayList<Runnable>();
+		final boolean[] reject = { false };
+		CallbackDispatcher ordered = CallbackDispatchers
+				.ordered(new Executor() {
+
+					@Override
+					public void execute(Runnable command) {
+						if (reject[0]) {
+							throw new RejectedExecutionException();
+						}
+						submitted.add(command);
+					}
+				});
+		final List<Integer> delivered = new ArrayList<Integer>();
+
+		ordered.dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				throw new RuntimeException("Failed callback");
+			}
+		});
+		ordered.dispatch(new Delivery(delivered, 2));
+		assertEquals(1, submitted.size());
+
+		reject[0] = true;
+		try {
+			submitted.remove(0).run();
+			fail("The callback failure should be propagated");
+		} catch (RuntimeException e) {
+			assertEquals("Failed callback", e.getMessage());
+		}
+		assertEquals(Arrays.asList(2), delivered);
+
+		reject[0] = false;
+		ordered.dispatch(new Delivery(delivered, 3));
+		assertEquals(1, submitted.size());
+		submitted.remove(0).run();
+		assertEquals(Arrays.asList(2, 3), delivered);
+	}
+
+	private static class Delivery implements Runnable {
+
+		private final List<Integer> delivered;
+		private final int n;
+
+		Delivery(List<Integer> delivered, int n) {
+			this.delivered = delivered;
+			this.n = n;
+		}
+
+		@Override
+		public void run() {
+			delivered.add(n);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.InMemoryJoinable;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.LatencyRecorder.Operation;
+import com.kurento.mscontrol.commons.LatencyRecorder.Outcome;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+public class LatencyMetricsTest extends TestCase {
+
+	private static class Result implements NetworkConnection.Continuation {
+
+		SessionSpec spec;
+
+		@Override
+		public void onSucess(SessionSpec spec) {
+			this.spec = spec;
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+		}
+	}
+
+	public void testPercentiles() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.snapshot().get99thPercentile());
+
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		histogram.record(-1);
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+		assertEquals(1001, snapshot.getCount());
+		assertEquals(1000000, snapshot.getMax());
+		assertClose(500000, snapshot.get50thPercentile());
+		assertClose(990000, snapshot.get99thPercentile());
+		assertClose(999000, snapshot.get999thPercentile());
+		assertEquals(1000000, snapshot.getValueAtPercentile(100));
+		assertEquals(0, snapshot.getValueAtPercentile(0));
+
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.snapshot().getValueAtPercentile(
+				100));
+
+		histogram.reset();
+		assertEquals(0, histogram.snapshot().getCount());
+	}
+
+	public void testBuckets() throws Exception {
+		for (long value = 0; value < 1 << 20; value += 7) {
+			int index = LatencyHistogram.index(value);
+			assertTrue(value <= LatencyHistogram.highestValue(index));
+			assertTrue(index == 0
+					|| value > LatencyHistogram.highestValue(index - 1));
+		}
+	}
+
+	public void testRecordedOperations() throws Exception {
+		LatencyMetrics metrics = new LatencyMetrics();
+		InMemoryNetworkConnection offerer = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		InMemoryNetworkConnection answerer = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		InMemoryJoinable player = new InMemoryJoinable(MediaType.AUDIO);
+		offerer.setLatencyRecorder(metrics);
+		answerer.setLatencyRecorder(metrics);
+		player.setLatencyRecorder(metrics);
+
+		Result offer = new Result();
+		offerer.generateSessionSpecOffer(offer);
+		offerer.generateSessionSpecOffer(new Result());
+		Result answer = new Result();
+		answerer.processSessionSpecOffer(offer.spec, answer);
+		offerer.processSessionSpecAnswer(answer.spec, new Result());
+		offerer.confirm();
+		player.join(offerer);
+		player.unjoin(offerer);
+
+		assertCount(metrics, Operation.GENERATE_OFFER, Outcome.SUCCESS, 1);
+		assertCount(metrics, Operation.GENERATE_OFFER, Outcome.ERROR, 1);
+		assertCount(metrics, Operation.PROCESS_OFFER, Outcome.SUCCESS, 1);
+		assertCount(metrics, Operation.PROCESS_ANSWER, Outcome.SUCCESS, 1);
+		assertCount(metrics, Operation.CONFIRM, Outcome.SUCCESS, 1);
+		assertCount(metrics, Operation.JOIN, Outcome.SUCCESS, 1);
+		assertCount(metrics, Operation.UNJOIN, Outcome.SUCCESS, 1);
+
+		try {
+			player.join(new InMemoryJoinable(MediaType.VIDEO));
+			fail("Joinables without common MediaTypes should not join");
+		} catch (MediaException e) {
+		}
+		assertCount(metrics, Operation.JOIN, Outcome.EXCEPTION, 1);
+
+		offerer.setLatencyRecorder(null);
+		offerer.confirm();
+		assertCount(metrics, Operation.CONFIRM, Outcome.SUCCESS, 1);
+
+		offerer.release();
+		answerer.release();
+		player.release();
+	}
+
+	private static void assertClose(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual,
+				Math.abs(actual - expected) <= expected / 25);
+	}
+
+	private static void assertCount(LatencyMetrics metrics,
+			Operation operation, Outcome outcome, long count) {
+		assertEquals(operation + " " + outcome, count, metrics.getSnapshot(
+				operation, outcome).getCount());
+	}
+}
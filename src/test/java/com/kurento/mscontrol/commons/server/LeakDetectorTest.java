@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+
+public class LeakDetectorTest extends TestCase {
+
+	private static LeakDetector.Tracker trackGarbage(LeakDetector detector) {
+		return detector.track(new InMemoryNetworkConnection(MediaType.AUDIO));
+	}
+
+	public void testLeakReported() throws Exception {
+		LeakDetector detector = new LeakDetector(LeakDetector.Level.PARANOID);
+		final List<String> leaked = new ArrayList<String>();
+		detector.setListener(new LeakDetector.Listener() {
+
+			@Override
+			public void onLeak(String type, Throwable allocation) {
+				assertNotNull(allocation.getStackTrace());
+				leaked.add(type);
+			}
+		});
+
+		InMemoryNetworkConnection released = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		detector.track(released).released();
+		trackGarbage(detector);
+		assertEquals(Integer.valueOf(1), detector.getLiveCounts().get(
+				InMemoryNetworkConnection.class.getName()));
+
+		for (int i = 0; i < 50 && leaked.isEmpty(); i++) {
+			System.gc();
+			Thread.sleep(20);
+			detector.checkLeaks();
+		}
+
+		assertEquals(1, leaked.size());
+		assertEquals(InMemoryNetworkConnection.class.getName(), leaked.get(0));
+		assertEquals(1, detector.getLeakCount());
+		assertEquals(Integer.valueOf(0), detector.getLiveCounts().get(
+				InMemoryNetworkConnection.class.getName()));
+	}
+
+	public void testLevels() throws Exception {
+		LeakDetector disabled = new LeakDetector(LeakDetector.Level.DISABLED);
+		disabled.track(new Object()).released();
+		assertTrue(disabled.getLiveCounts().isEmpty());
+
+		LeakDetector sampled = new LeakDetector(LeakDetector.Level.SAMPLED);
+		List<LeakDetector.Tracker> trackers = new ArrayList<LeakDetector.Tracker>();
+		for (int i = 0; i < 2 * LeakDetector.SAMPLING_INTERVAL; i++) {
+			trackers.add(sampled.track(new Object()));
+		}
+		assertEquals(Integer.valueOf(trackers.size()), sampled
+				.getLiveCounts().get(Object.class.getName()));
+		for (LeakDetector.Tracker tracker : trackers) {
+			tracker.released();
+			tracker.released();
+		}
+		assertEquals(Integer.valueOf(0), sampled.getLiveCounts().get(
+				Object.class.getName()));
+
+		assertEquals(LeakDetector.Level.PARANOID,
+				LeakDetector.parseLevel("paranoid"));
+		assertEquals(LeakDetector.Level.DISABLED,
+				LeakDetector.parseLevel("unknown"));
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.InMemoryJoinable;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.server.MediaFuture.Step;
+
+public class MediaFutureTest extends TestCase {
+
+	public void testCallSetup() throws Exception {
+		final AsyncNetworkConnection caller = new AsyncNetworkConnection(
+				new InMemoryNetworkConnection(MediaType.AUDIO));
+		final AsyncNetworkConnection callee = new AsyncNetworkConnection(
+				new InMemoryNetworkConnection(MediaType.AUDIO));
+		final InMemoryJoinable player = new InMemoryJoinable(MediaType.AUDIO);
+
+		MediaFuture<Void> setup = caller.generateOffer()
+				.then(new Step<SessionSpec, SessionSpec>() {
+
+					@Override
+					public MediaFuture<SessionSpec> apply(SessionSpec offer) {
+						return callee.processOffer(offer);
+					}
+				}).then(new Step<SessionSpec, SessionSpec>() {
+
+					@Override
+					public MediaFuture<SessionSpec> apply(SessionSpec answer) {
+						return caller.processAnswer(answer);
+					}
+				}).then(new Step<SessionSpec, Void>() {
+
+					@Override
+					public MediaFuture<Void> apply(SessionSpec local) {
+						return caller.confirm();
+					}
+				}).then(new Step<Void, Void>() {
+
+					@Override
+					public MediaFuture<Void> apply(Void value) {
+						return caller.join(player);
+					}
+				});
+
+		assertNull(setup.get());
+		assertNotNull(caller.getNetworkConnection().getRemoteSessionSpec());
+		assertTrue(caller.getNetworkConnection().getJoinees()
+				.contains(player));
+	}
+
+	public void testErrorPropagation() throws Exception {
+		AsyncNetworkConnection nc = new AsyncNetworkConnection(
+				new InMemoryNetworkConnection(MediaType.AUDIO));
+		final boolean[] called = { false };
+
+		MediaFuture<SessionSpec> result = nc.processOffer(null).then(
+				new Step<SessionSpec, SessionSpec>() {
+
+					@Override
+					public MediaFuture<SessionSpec> apply(SessionSpec spec) {
+						called[0] = true;
+						return MediaFuture.completed(spec);
+					}
+				});
+
+		try {
+			result.get();
+			fail("Processing a null offer should fail");
+		} catch (MediaException e) {
+		}
+		assertFalse(called[0]);
+
+		MediaFuture<Void> wrapped = MediaFuture.failed(new RuntimeException(
+				"Backend failure"));
+		try {
+			wrapped.get();
+			fail("Failed future should throw");
+		} catch (MediaException e) {
+			assertTrue(e.getCause() instanceof RuntimeException);
+		}
+	}
+
+	public void testFanIn() throws Exception {
+		List<MediaFuture<SessionSpec>> offers = new ArrayList<MediaFuture<SessionSpec>>();
+		for (int i = 0; i < 10; i++) {
+			offers.add(new AsyncNetworkConnection(
+					new InMemoryNetworkConnection(MediaType.AUDIO))
+					.generateOffer());
+		}
+		assertEquals(10, MediaFuture.all(offers).get().size());
+
+		MediaFuture<SessionSpec> pending = new MediaFuture<SessionSpec>();
+		offers.add(pending);
+		MediaFuture<List<SessionSpec>> all = MediaFuture.all(offers);
+		assertFalse(all.isDone());
+		pending.completeWithError(new MediaException("No resources"));
+		assertTrue(all.isDone());
+	}
+}
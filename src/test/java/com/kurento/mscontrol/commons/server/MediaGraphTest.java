@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.Joinable;
+import com.kurento.mscontrol.commons.MediaSink;
+import com.kurento.mscontrol.commons.MediaSrc;
+import com.kurento.mscontrol.commons.MockJoinable;
+
+public class MediaGraphTest extends TestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		MediaGraph.setTracking(true);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		MediaGraph.setTracking(false);
+		super.tearDown();
+	}
+
+	public void testSnapshotsAreImmutable() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+
+		MediaGraphSnapshot before = MediaGraph.snapshot();
+		a.join(b);
+		MediaGraphSnapshot joined = MediaGraph.snapshot();
+		a.unjoin(b);
+		MediaGraphSnapshot after = MediaGraph.snapshot();
+
+		assertEquals(0, before.getLinkCount());
+		assertEquals(2, joined.getLinkCount());
+		assertEquals(0, after.getLinkCount());
+		assertTrue(joined.getVersion() > before.getVersion());
+		assertTrue(after.getVersion() > joined.getVersion());
+		assertSame(a.getSrc(MediaType.AUDIO),
+				joined.getConnectedSrc(b.getSink(MediaType.AUDIO)));
+	}
+
+	public void testFanOutAndReachability() throws Exception {
+		MockJoinable presenter = new MockJoinable(MediaType.AUDIO);
+		MockJoinable relay = new MockJoinable(MediaType.AUDIO);
+		MockJoinable viewer = new MockJoinable(MediaType.AUDIO);
+		MockJoinable other = new MockJoinable(MediaType.AUDIO);
+		List<MockJoinable> viewers = new ArrayList<MockJoinable>();
+		viewers.add(relay);
+		viewers.add(other);
+
+		presenter.joinAll(viewers);
+		relay.link(relay.getSrc(MediaType.AUDIO),
+				viewer.getSink(MediaType.AUDIO));
+
+		MediaGraphSnapshot snapshot = MediaGraph.snapshot();
+		assertEquals(2, snapshot.getFanOut(presenter.getSrc(MediaType.AUDIO)));
+		assertTrue(snapshot.isReachable(presenter, viewer));
+		assertFalse(snapshot.isReachable(viewer, relay));
+		assertEquals(4, snapshot.getJoinables().size());
+	}
+
+	public void testExport() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+
+		a.join(b);
+		MediaGraphSnapshot snapshot = MediaGraph.snapshot();
+
+		String dot = snapshot.toDot();
+		assertTrue(dot.startsWith("digraph media {"));
+		assertTrue(dot.contains("j0 -> j1 [label=\"AUDIO\"]"));
+		String json = snapshot.toJson();
+		assertTrue(json.contains("\"links\":[{\"from\":"));
+		assertTrue(json.contains("\"type\":\"AUDIO\""));
+	}
+
+	public void testManyLinks() throws Exception {
+		MockJoinable hub = new MockJoinable(MediaType.AUDIO);
+		List<MockJoinable> peers = new ArrayList<MockJoinable>();
+		for (int i = 0; i < 1000; i++) {
+			peers.add(new MockJoinable(MediaType.AUDIO));
+		}
+
+		hub.joinAll(peers);
+		assertEquals(1001, MediaGraph.snapshot().getLinkCount());
+		hub.unjoinAll(peers.subList(0, 500));
+		assertEquals(501, MediaGraph.snapshot().getLinkCount());
+		hub.unjoinAll();
+		assertEquals(0, MediaGraph.snapshot().getLinkCount());
+	}
+
+	public void testOtherListenersAreKept() throws Exception {
+		final MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+		final List<Integer> fanOuts = new ArrayList<Integer>();
+		Joinable.LinkListener listener = new Joinable.LinkListener() {
+
+			@Override
+			public void linked(MediaSrc src, MediaSink sink) {
+				if (src.getJoinable() == a) {
+					fanOuts.add(a.getConnectedSinks(src).size());
+				}
+			}
+
+			@Override
+			public void unlinked(MediaSrc src, MediaSink sink) {
+			}
+		};
+
+		Joinable.addLinkListener(listener);
+		try {
+			MediaGraph.setTracking(false);
+			MediaGraph.setTracking(true);
+			a.join(b);
+			assertEquals(Arrays.asList(1), fanOuts);
+			assertEquals(2, MediaGraph.snapshot().getLinkCount());
+		} finally {
+			assertTrue(Joinable.removeLinkListener(listener));
+		}
+	}
+
+	public void testDisabledTrackingIgnoresLinks() throws Exception {
+		MockJoinable a = new MockJoinable(MediaType.AUDIO);
+		MockJoinable b = new MockJoinable(MediaType.AUDIO);
+
+		a.join(b);
+		MediaGraph.setTracking(false);
+		assertFalse(MediaGraph.isTracking());
+		assertEquals(0, MediaGraph.snapshot().getLinkCount());
+		a.unjoin(b);
+		b.join(a);
+		assertEquals(0, MediaGraph.snapshot().getLinkCount());
+	}
+}
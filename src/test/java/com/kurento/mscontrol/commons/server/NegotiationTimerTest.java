@@ -0,0 +1,214 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.CallbackDispatcher;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.NetworkConnection;
+import com.kurento.mscontrol.commons.NetworkConnection.ProgressiveContinuation;
+
+public class NegotiationTimerTest extends TestCase {
+
+	private static class StalledNetworkConnection extends
+			InMemoryNetworkConnection {
+
+		Continuation pending;
+		int releases;
+
+		StalledNetworkConnection() {
+			super(MediaType.AUDIO);
+		}
+
+		@Override
+		public void generateSessionSpecOffer(Continuation cont) {
+			pending = cont;
+		}
+
+		@Override
+		public void release() {
+			releases++;
+			super.release();
+		}
+
+		void partial(int index) {
+			dispatchPartial(pending, new SessionSpec(), index);
+		}
+	}
+
+	private static class Result implements NetworkConnection.Continuation {
+
+		final Semaphore sem = new Semaphore(0);
+		volatile int successes;
+		volatile int errors;
+
+		@Override
+		public void onSucess(SessionSpec spec) {
+			successes++;
+			sem.release();
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			assertTrue(cause instanceof MediaException);
+			errors++;
+			sem.release();
+		}
+	}
+
+	private ScheduledExecutorService scheduler;
+	private NegotiationTimer timer;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		timer = new NegotiationTimer(scheduler);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		scheduler.shutdownNow();
+		super.tearDown();
+	}
+
+	public void testCompletesBeforeDeadline() throws Exception {
+		InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		Result result = new Result();
+
+		Negotiation negotiation = timer.generateSessionSpecOffer(nc, 1,
+				TimeUnit.MINUTES, result);
+		assertTrue(negotiation.isDone());
+		assertFalse(negotiation.cancel());
+		assertEquals(1, result.successes);
+		assertEquals(0, timer.getPendingCount());
+		nc.release();
+	}
+
+	public void testDeadline() throws Exception {
+		StalledNetworkConnection nc = new StalledNetworkConnection();
+		Result result = new Result();
+
+		timer.generateSessionSpecOffer(nc, 10, TimeUnit.MILLISECONDS, result);
+		assertEquals(1, timer.getPendingCount());
+		assertTrue(result.sem.tryAcquire(5, TimeUnit.SECONDS));
+
+		nc.pending.onSucess(new SessionSpec());
+		assertEquals(0, result.successes);
+		assertEquals(1, result.errors);
+		assertEquals(1, nc.releases);
+		assertEquals(1, timer.getExpired());
+		assertEquals(0, timer.getPendingCount());
+	}
+
+	public void testCancel() throws Exception {
+		StalledNetworkConnection nc = new StalledNetworkConnection();
+		Result result = new Result();
+
+		Negotiation negotiation = timer.generateSessionSpecOffer(nc, 1,
+				TimeUnit.MINUTES, result);
+		assertTrue(negotiation.cancel());
+		assertTrue(negotiation.isCancelled());
+		assertFalse(negotiation.cancel());
+
+		nc.pending.onError(new MediaException("Late error"));
+		assertEquals(1, result.errors);
+		assertEquals(1, nc.releases);
+		assertEquals(0, timer.getExpired());
+	}
+
+	public void testCancelIsDispatched() throws Exception {
+		StalledNetworkConnection nc = new StalledNetworkConnection();
+		final List<Runnable> submitted = new ArrayList<Runnable>();
+		nc.setCallbackDispatcher(new CallbackDispatcher() {
+
+			@Override
+			public void dispatch(Runnable callback) {
+				submitted.add(callback);
+			}
+		});
+		final List<Integer> events = new ArrayList<Integer>();
+
+		Negotiation negotiation = timer.generateSessionSpecOffer(nc, 1,
+				TimeUnit.MINUTES, new ProgressiveContinuation() {
+
+					@Override
+					public void onMediaReady(SessionSpec partial, int index) {
+						events.add(index);
+					}
+
+					@Override
+					public void onSucess(SessionSpec spec) {
+						fail("Cancelled negotiation succeeded");
+					}
+
+					@Override
+					public void onError(Throwable cause) {
+						events.add(-1);
+					}
+				});
+		nc.partial(0);
+		assertTrue(negotiation.cancel());
+		nc.partial(1);
+		assertTrue(events.isEmpty());
+
+		assertEquals(1, submitted.size());
+		submitted.get(0).run();
+		assertEquals(Arrays.asList(-1), events);
+	}
+
+	public void testProgressiveOnlyForProgressiveContinuations()
+			throws Exception {
+		StalledNetworkConnection nc = new StalledNetworkConnection();
+		timer.generateSessionSpecOffer(nc, 1, TimeUnit.MINUTES, new Result());
+		assertFalse(nc.pending instanceof ProgressiveContinuation);
+
+		final int[] partials = new int[1];
+		Result progressive = new ProgressiveResult(partials);
+		timer.generateSessionSpecOffer(nc, 1, TimeUnit.MINUTES, progressive);
+		assertTrue(nc.pending instanceof ProgressiveContinuation);
+		((ProgressiveContinuation) nc.pending).onMediaReady(new SessionSpec(),
+				0);
+		assertEquals(1, partials[0]);
+	}
+
+	private static class ProgressiveResult extends Result implements
+			ProgressiveContinuation {
+
+		private final int[] partials;
+
+		ProgressiveResult(int[] partials) {
+			this.partials = partials;
+		}
+
+		@Override
+		public void onMediaReady(SessionSpec partial, int index) {
+			partials[0]++;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+public class NetworkConnectionPoolTest extends TestCase {
+
+	private static final NetworkConnectionPool.Factory FACTORY = new NetworkConnectionPool.Factory() {
+
+		@Override
+		public NetworkConnection create() {
+			return new InMemoryNetworkConnection(MediaType.AUDIO,
+					MediaType.VIDEO);
+		}
+	};
+
+	private ScheduledExecutorService executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		executor = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		super.tearDown();
+	}
+
+	private static void awaitIdle(NetworkConnectionPool pool, int count)
+			throws InterruptedException {
+		for (int i = 0; i < 500 && pool.getIdleCount() < count; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, pool.getIdleCount());
+	}
+
+	public void testReadyOffers() throws Exception {
+		NetworkConnectionPool pool = new NetworkConnectionPool(FACTORY, 2,
+				1, TimeUnit.MINUTES, executor);
+		assertNull(pool.poll());
+		assertEquals(1, pool.getMisses());
+
+		pool.start();
+		awaitIdle(pool, 2);
+
+		NetworkConnectionPool.ReadyOffer offer = pool.poll();
+		assertNotNull(offer);
+		assertSame(offer.getSessionSpec(), offer.getNetworkConnection()
+				.getSessionSpec());
+		assertEquals(1, pool.getHits());
+
+		awaitIdle(pool, 2);
+		pool.close();
+		assertEquals(0, pool.getIdleCount());
+		assertNull(pool.poll());
+		offer.getNetworkConnection().release();
+	}
+
+	public void testAcquireOnMiss() throws Exception {
+		NetworkConnectionPool pool = new NetworkConnectionPool(FACTORY, 0,
+				1, TimeUnit.MINUTES, executor);
+		final NetworkConnectionPool.ReadyOffer[] result = new NetworkConnectionPool.ReadyOffer[1];
+
+		pool.acquire(new NetworkConnectionPool.OfferContinuation() {
+
+			@Override
+			public void onSucess(NetworkConnectionPool.ReadyOffer offer) {
+				result[0] = offer;
+			}
+
+			@Override
+			public void onError(Throwable cause) {
+				fail("Error generating offer: " + cause.getMessage());
+			}
+		});
+
+		assertNotNull(result[0]);
+		assertNotNull(result[0].getSessionSpec());
+		assertEquals(1, pool.getMisses());
+		result[0].getNetworkConnection().release();
+	}
+
+	public void testExpiration() throws Exception {
+		NetworkConnectionPool pool = new NetworkConnectionPool(FACTORY, 1,
+				1, TimeUnit.HOURS, executor);
+		pool.start();
+		awaitIdle(pool, 1);
+
+		NetworkConnectionPool shortLived = new NetworkConnectionPool(FACTORY,
+				1, 1, TimeUnit.MILLISECONDS, executor);
+		shortLived.start();
+		Thread.sleep(50);
+		shortLived.close();
+		assertTrue(shortLived.getExpired() > 0);
+
+		pool.expire();
+		assertEquals(0, pool.getExpired());
+		assertEquals(1, pool.getIdleCount());
+		pool.close();
+	}
+
+	public void testRejectedRefill() throws Exception {
+		ScheduledExecutorService rejecting = new ScheduledThreadPoolExecutor(
+				1) {
+
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		};
+		try {
+			NetworkConnectionPool pool = new NetworkConnectionPool(FACTORY,
+					2, 1, TimeUnit.MINUTES, rejecting);
+			pool.start();
+			assertEquals(0, pool.getWarmingCount());
+			pool.close();
+		} finally {
+			rejecting.shutdownNow();
+		}
+	}
+
+	public void testFactoryFailure() throws Exception {
+		NetworkConnectionPool pool = new NetworkConnectionPool(
+				new NetworkConnectionPool.Factory() {
+
+					@Override
+					public NetworkConnection create() {
+						throw new IllegalStateException("Media server down");
+					}
+				}, 2, 1, TimeUnit.MINUTES, executor);
+		pool.start();
+		for (int i = 0; i < 500 && pool.getWarmingCount() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, pool.getWarmingCount());
+		assertEquals(2, pool.getFailures());
+		pool.close();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mediaspec.SessionSpec;
+import com.kurento.mscontrol.commons.InMemoryJoinable;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.MediaSink;
+import com.kurento.mscontrol.commons.MediaSrc;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+public class NetworkConnectionRecyclerTest extends TestCase {
+
+	private static final NetworkConnectionRecycler.Factory FACTORY = new NetworkConnectionRecycler.Factory() {
+
+		@Override
+		public NetworkConnection create(Set<MediaType> capabilities) {
+			return new InMemoryNetworkConnection(
+					capabilities.toArray(new MediaType[capabilities.size()]));
+		}
+	};
+
+	private static class Offer implements NetworkConnection.Continuation {
+
+		SessionSpec spec;
+
+		@Override
+		public void onSucess(SessionSpec spec) {
+			this.spec = spec;
+		}
+
+		@Override
+		public void onError(Throwable cause) {
+			fail("Error generating offer: " + cause.getMessage());
+		}
+	}
+
+	public void testReuseByCapabilities() throws Exception {
+		NetworkConnectionRecycler recycler = new NetworkConnectionRecycler(
+				FACTORY, 4);
+
+		NetworkConnection audio = recycler.obtain(MediaType.AUDIO);
+		InMemoryJoinable peer = new InMemoryJoinable(MediaType.AUDIO);
+		audio.join(peer);
+		audio.generateSessionSpecOffer(new Offer());
+		assertNotNull(audio.getSessionSpec());
+
+		recycler.recycle(audio);
+		assertNull(audio.getSessionSpec());
+		assertTrue(audio.getJoinees().isEmpty());
+		assertEquals(1, recycler.getIdleCount(MediaType.AUDIO));
+		assertEquals(0,
+				recycler.getIdleCount(MediaType.AUDIO, MediaType.VIDEO));
+
+		assertNotSame(audio,
+				recycler.obtain(MediaType.VIDEO, MediaType.AUDIO));
+		assertSame(audio, recycler.obtain(MediaType.AUDIO));
+		assertEquals(2, recycler.getCreated());
+		assertEquals(1, recycler.getReused());
+
+		Offer offer = new Offer();
+		audio.generateSessionSpecOffer(offer);
+		assertNotNull(offer.spec);
+		recycler.close();
+	}
+
+	public void testDiscard() throws Exception {
+		NetworkConnectionRecycler recycler = new NetworkConnectionRecycler(
+				FACTORY, 1);
+		NetworkConnection first = recycler.obtain(MediaType.AUDIO);
+		NetworkConnection second = recycler.obtain(MediaType.AUDIO);
+
+		recycler.recycle(first);
+		recycler.recycle(second);
+		assertEquals(1, recycler.getIdleCount(MediaType.AUDIO));
+		assertEquals(1, recycler.getDiscarded());
+
+		recycler.close();
+		assertEquals(0, recycler.getIdleCount(MediaType.AUDIO));
+	}
+
+	public void testDiscardNotRecyclable() throws Exception {
+		NetworkConnectionRecycler recycler = new NetworkConnectionRecycler(
+				new NetworkConnectionRecycler.Factory() {
+
+					@Override
+					public NetworkConnection create(
+							Set<MediaType> capabilities) {
+						return new InMemoryNetworkConnection(MediaType.AUDIO) {
+
+							@Override
+							protected boolean reset() {
+								return false;
+							}
+						};
+					}
+				}, 1);
+		NetworkConnection connection = recycler.obtain(MediaType.AUDIO);
+		connection.join(new InMemoryJoinable(MediaType.AUDIO));
+
+		recycler.recycle(connection);
+		assertTrue(connection.getJoinees().isEmpty());
+		assertEquals(0, recycler.getIdleCount(MediaType.AUDIO));
+		assertEquals(1, recycler.getDiscarded());
+	}
+
+	public void testKeyedByCapabilitiesBeforeReset() throws Exception {
+		NetworkConnectionRecycler recycler = new NetworkConnectionRecycler(
+				new NetworkConnectionRecycler.Factory() {
+
+					@Override
+					public NetworkConnection create(
+							Set<MediaType> capabilities) {
+						return new InMemoryNetworkConnection(MediaType.AUDIO) {
+
+							private boolean reset;
+
+							@Override
+							public Collection<MediaSrc> getMediaSrcs() {
+								return reset ? Collections
+										.<MediaSrc> emptyList() : super
+										.getMediaSrcs();
+							}
+
+							@Override
+							public Collection<MediaSink> getMediaSinks() {
+								return reset ? Collections
+										.<MediaSink> emptyList() : super
+										.getMediaSinks();
+							}
+
+							@Override
+							protected synchronized boolean reset() {
+								// Streams are negotiated again on next use
+								reset = true;
+								return super.reset();
+							}
+						};
+					}
+				}, 1);
+		NetworkConnection connection = recycler.obtain(MediaType.AUDIO);
+
+		recycler.recycle(connection);
+		assertEquals(1, recycler.getIdleCount(MediaType.AUDIO));
+		assertSame(connection, recycler.obtain(MediaType.AUDIO));
+		recycler.close();
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+public class OfferBatchTest extends TestCase {
+
+	public void testPartialSuccess() throws Exception {
+		final int[] created = { 0 };
+		OfferBatch.Factory factory = new OfferBatch.Factory() {
+
+			@Override
+			public NetworkConnection create() throws MediaException {
+				if (++created[0] % 3 == 0) {
+					throw new MediaException("No resources available");
+				}
+				return new InMemoryNetworkConnection(MediaType.AUDIO,
+						MediaType.VIDEO);
+			}
+		};
+		final OfferBatch[] result = new OfferBatch[1];
+
+		OfferBatch.individually(factory).generateOffers(100,
+				new OfferBatch.BatchContinuation() {
+
+					@Override
+					public void onSucess(OfferBatch batch) {
+						result[0] = batch;
+					}
+
+					@Override
+					public void onError(Throwable cause) {
+						fail("Batch failed: " + cause.getMessage());
+					}
+				});
+
+		OfferBatch batch = result[0];
+		assertNotNull(batch);
+		assertEquals(100, batch.size());
+		assertEquals(67, batch.getSucceededCount());
+		assertEquals(33, batch.getFailedCount());
+
+		assertNotNull(batch.getError(2));
+		assertNull(batch.getNetworkConnection(2));
+		assertSame(batch.getSessionSpec(0), batch.getNetworkConnection(0)
+				.getSessionSpec());
+		batch.releaseAll();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.InMemoryJoinable;
+import com.kurento.mscontrol.commons.InMemoryNetworkConnection;
+import com.kurento.mscontrol.commons.NetworkConnection;
+
+public class ReclaimerTest extends TestCase {
+
+	private static class ManualExecutor implements Executor {
+
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			while (!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+
+	private static class CountingReleaser implements
+			Reclaimer.Releaser<NetworkConnection> {
+
+		final List<Integer> batches = new ArrayList<Integer>();
+
+		@Override
+		public List<NetworkConnection> release(List<NetworkConnection> items) {
+			batches.add(items.size());
+			return Reclaimer.NETWORK_CONNECTIONS.release(items);
+		}
+	}
+
+	public void testBatches() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		Reclaimer reclaimer = new Reclaimer(8, 4, executor);
+		CountingReleaser releaser = new CountingReleaser();
+		reclaimer.setReleaser(InMemoryNetworkConnection.class, releaser);
+
+		InMemoryJoinable player = new InMemoryJoinable(MediaType.AUDIO);
+		for (int i = 0; i < 6; i++) {
+			InMemoryNetworkConnection nc = new InMemoryNetworkConnection(
+					MediaType.AUDIO);
+			nc.join(player);
+			assertTrue(reclaimer.release(nc));
+		}
+		assertTrue(reclaimer.release(player.getMediaSink(MediaType.AUDIO)));
+
+		assertEquals(1, executor.tasks.size());
+		assertEquals(7, reclaimer.getQueueDepth());
+		assertEquals(6, player.getJoinees().size());
+
+		executor.runAll();
+		assertEquals(0, reclaimer.getQueueDepth());
+		assertEquals(7, reclaimer.getReclaimed());
+		assertEquals(2, releaser.batches.size());
+		assertEquals(4, releaser.batches.get(0).intValue());
+		assertEquals(2, releaser.batches.get(1).intValue());
+		assertTrue(player.getJoinees().isEmpty());
+		assertTrue(reclaimer.getMaxLatency() >= reclaimer.getMeanLatency());
+	}
+
+	public void testBoundedQueue() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		Reclaimer reclaimer = new Reclaimer(1, 1, executor);
+
+		assertTrue(reclaimer.release(new InMemoryNetworkConnection(
+				MediaType.AUDIO)));
+		assertFalse(reclaimer.release(new InMemoryNetworkConnection(
+				MediaType.AUDIO)));
+		assertEquals(1, reclaimer.getReleasedInline());
+
+		reclaimer.close();
+		assertEquals(0, reclaimer.getQueueDepth());
+		assertEquals(1, reclaimer.getReclaimed());
+		assertFalse(reclaimer.release(new InMemoryNetworkConnection(
+				MediaType.AUDIO)));
+	}
+
+	public void testRejectedBatch() throws Exception {
+		final ManualExecutor pool = new ManualExecutor();
+		Executor executor = new Executor() {
+
+			boolean rejected;
+
+			@Override
+			public void execute(Runnable command) {
+				if (!rejected) {
+					rejected = true;
+					throw new RejectedExecutionException();
+				}
+				pool.execute(command);
+			}
+		};
+		Reclaimer reclaimer = new Reclaimer(8, 4, executor);
+
+		InMemoryNetworkConnection first = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		assertFalse(reclaimer.release(first));
+		assertEquals(1, reclaimer.getReleasedInline());
+		assertEquals(0, reclaimer.getQueueDepth());
+
+		assertTrue(reclaimer.release(new InMemoryNetworkConnection(
+				MediaType.AUDIO)));
+		assertEquals(1, pool.tasks.size());
+		pool.runAll();
+		assertEquals(1, reclaimer.getReclaimed());
+	}
+
+	public void testFailuresAreCountedPerItem() throws Exception {
+		ManualExecutor executor = new ManualExecutor();
+		Reclaimer reclaimer = new Reclaimer(8, 8, executor);
+
+		InMemoryNetworkConnection failing = new InMemoryNetworkConnection(
+				MediaType.AUDIO) {
+
+			@Override
+			public void release() {
+				throw new IllegalStateException("Media server down");
+			}
+		};
+		InMemoryNetworkConnection first = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		InMemoryNetworkConnection last = new InMemoryNetworkConnection(
+				MediaType.AUDIO);
+		InMemoryJoinable player = new InMemoryJoinable(MediaType.AUDIO);
+		first.join(player);
+		last.join(player);
+
+		// All three share the default releaser and the same batch
+		assertTrue(reclaimer.release(first));
+		assertTrue(reclaimer.release(failing));
+		assertTrue(reclaimer.release(last));
+		executor.runAll();
+
+		assertTrue(player.getJoinees().isEmpty());
+		assertEquals(2, reclaimer.getReclaimed());
+		assertEquals(1, reclaimer.getFailures());
+	}
+}
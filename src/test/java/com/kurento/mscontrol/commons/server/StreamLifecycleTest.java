@@ -0,0 +1,195 @@
+/*
+ * (C) Copyright 2013 Kurento (http://kurento.org/)
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ */
+package com.kurento.mscontrol.commons.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.kurento.mediaspec.MediaType;
+import com.kurento.mscontrol.commons.InMemoryJoinable;
+import com.kurento.mscontrol.commons.InMemoryMediaSink;
+import com.kurento.mscontrol.commons.InMemoryMediaSrc;
+import com.kurento.mscontrol.commons.MediaException;
+import com.kurento.mscontrol.commons.server.StreamLifecycle.State;
+
+public class StreamLifecycleTest extends TestCase {
+
+	public void testTransitions() throws Exception {
+		StreamLifecycle lifecycle = new StreamLifecycle();
+		assertEquals(State.CREATED, lifecycle.getState());
+		assertFalse(lifecycle.stop());
+
+		assertTrue(lifecycle.start());
+		assertFalse(lifecycle.start());
+		assertTrue(lifecycle.isStarted());
+
+		assertTrue(lifecycle.stop());
+		assertFalse(lifecycle.stop());
+		assertEquals(State.STOPPED, lifecycle.getState());
+		assertTrue(lifecycle.start());
+
+		assertEquals(State.STARTED, lifecycle.release());
+		assertNull(lifecycle.release());
+		try {
+			lifecycle.start();
+			fail("A released stream must not start");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			lifecycle.stop();
+			fail("A released stream must not stop");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testFailedBackendKeepsState() throws Exception {
+		StreamLifecycle lifecycle = new StreamLifecycle();
+		try {
+			lifecycle.start(new StreamLifecycle.Transition() {
+
+				@Override
+				public void run() throws MediaException {
+					throw new MediaException("No media server");
+				}
+			});
+			fail("The backend error must be thrown");
+		} catch (MediaException e) {
+		}
+		assertEquals(State.CREATED, lifecycle.getState());
+	}
+
+	public void testConcurrentStartStopReachBackendInOrder()
+			throws Exception {
+		final StreamLifecycle lifecycle = new StreamLifecycle();
+		final List<Boolean> backend = Collections
+				.synchronizedList(new ArrayList<Boolean>());
+		final StreamLifecycle.Transition play = new StreamLifecycle.Transition() {
+
+			@Override
+			public void run() {
+				backend.add(Boolean.TRUE);
+				Thread.yield();
+			}
+		};
+		final StreamLifecycle.Transition pause = new StreamLifecycle.Transition() {
+
+			@Override
+			public void run() {
+				backend.add(Boolean.FALSE);
+				Thread.yield();
+			}
+		};
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] threads = new Thread[4];
+
+		for (int i = 0; i < threads.length; i++) {
+			final boolean starter = i % 2 == 0;
+			threads[i] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						go.await();
+						for (int j = 0; j < 1000; j++) {
+							if (starter) {
+								lifecycle.start(play);
+							} else {
+								lifecycle.stop(pause);
+							}
+						}
+					} catch (Exception e) {
+						backend.add(null);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		go.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		// The backend alternates between playing and stopping, and ends in
+		// the state of the lifecycle
+		assertFalse(backend.contains(null));
+		for (int i = 0; i < backend.size(); i++) {
+			assertEquals(i % 2 == 0, backend.get(i).booleanValue());
+		}
+		assertEquals(lifecycle.isStarted(), backend.size() % 2 == 1);
+	}
+
+	public void testConcurrentStart() throws Exception {
+		final StreamLifecycle lifecycle = new StreamLifecycle();
+		final AtomicInteger transitions = new AtomicInteger();
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						go.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (lifecycle.start()) {
+						transitions.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		go.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(1, transitions.get());
+	}
+
+	public void testInMemoryStreams() throws Exception {
+		InMemoryJoinable a = new InMemoryJoinable(MediaType.AUDIO);
+		InMemoryJoinable b = new InMemoryJoinable(MediaType.AUDIO);
+		InMemoryMediaSrc src = a.getMediaSrc(MediaType.AUDIO);
+		InMemoryMediaSink sink = b.getMediaSink(MediaType.AUDIO);
+		src.connect(sink);
+
+		byte[] frame = new byte[] { 1, 2, 3 };
+		src.stop();
+		src.stop();
+		assertEquals(0, src.write(frame, 0, frame.length, 0));
+		src.start();
+		assertEquals(1, src.write(frame, 0, frame.length, 1));
+
+		sink.release();
+		sink.release();
+		assertNull(sink.getConnectedSrc());
+		try {
+			sink.start();
+			fail("A released sink must not start");
+		} catch (IllegalStateException e) {
+		}
+
+		a.release();
+		b.release();
+	}
+}